@@ -4,8 +4,6 @@ import it.torvergata.ahmed.controller.ProgramFlow;
 import it.torvergata.ahmed.logging.SeLogger;
 import org.jetbrains.annotations.NotNull;
 
-import java.io.File;
-import java.io.IOException;
 import java.util.logging.Logger;
 
 import static it.torvergata.ahmed.controller.GitInjection.SYS_CUT_PERCENTAGE;
@@ -13,7 +11,6 @@ import static it.torvergata.ahmed.controller.GitInjection.SYS_CUT_PERCENTAGE;
 
 public class Main {
 
-    public static final String SYS_PMD_HOME = "SYS_PMD_HOME";
     private static final double DEFAULT_PERCENTAGE = 0.34;
 
 
@@ -25,28 +22,7 @@ public class Main {
             logger.severe("Usage: Main <input-file>");
             System.exit(-1);
         }
-        String pmdHome = System.getenv(SYS_PMD_HOME);
-        if (pmdHome == null || pmdHome.isEmpty()){
-            logger.severe("Environment variable " + SYS_PMD_HOME + " not set");
-            System.exit(-1);
-        }
         checkPercentage();
-        try {
-            String pmdCommand = pmdHome + File.separator + "bin" + File.separator + (isWindows() ? "pmd.bat" : "pmd");
-            new ProcessBuilder(
-                    pmdCommand,
-                            "--",
-                            "version"
-            ).start().waitFor();
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            System.exit(-1);
-        } catch (IOException e) {
-            String msg = "cannot find pmd in the system: " + e.getMessage();
-            logger.severe(msg);
-            System.exit(-1);
-        }
-
 
         logger.info("____________________________START____________________________");
         long startTime = System.nanoTime();
@@ -77,8 +53,4 @@ public class Main {
             SeLogger.getInstance().getLogger().warning(warning);
         }
     }
-
-    private static boolean isWindows() {
-        return System.getProperty("os.name").toLowerCase().contains("win");
-    }
 }
\ No newline at end of file
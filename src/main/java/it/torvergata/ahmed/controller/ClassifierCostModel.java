@@ -0,0 +1,113 @@
+package it.torvergata.ahmed.controller;
+
+import it.torvergata.ahmed.logging.SeLogger;
+import it.torvergata.ahmed.model.CustomClassifier;
+import org.jetbrains.annotations.NotNull;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Estimated training and evaluation time of the classifier combinations, used to start the longest
+ * tasks first. The cost of a combination is measured in nanoseconds per instance (training plus testing)
+ * and saved at the end of the run, the next run orders its tasks with the measured costs; a combination
+ * never measured gets a static prior where RandomForest and SMOTE are the expensive choices.
+ */
+public class ClassifierCostModel {
+
+    private static final String COSTS_FILE = "classifier_costs.json";
+    /**
+     * weight of the new measure in the moving average of a combination cost
+     */
+    private static final double NEW_WEIGHT = 0.5;
+    private static final double PRIOR_NANOS_PER_INSTANCE = 20_000;
+
+    private final Path file;
+    private final Map<String, Double> nanosPerInstance = new ConcurrentHashMap<>();
+
+    private ClassifierCostModel(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Load the costs measured by the previous runs, missing or unreadable costs fall back on the priors
+     *
+     * @param dir the cache directory of the project
+     * @return the model
+     */
+    public static @NotNull ClassifierCostModel load(@NotNull Path dir) {
+        ClassifierCostModel model = new ClassifierCostModel(dir.resolve(COSTS_FILE));
+        if (Files.exists(model.file)) {
+            try {
+                JSONObject stored = new JSONObject(Files.readString(model.file));
+                for (String key : stored.keySet()) {
+                    model.nanosPerInstance.put(key, stored.getDouble(key));
+                }
+            } catch (IOException | JSONException e) {
+                SeLogger.getInstance().getLogger().warning("classifier costs unreadable: " + e.getMessage());
+            }
+        }
+        return model;
+    }
+
+    /**
+     * @param customClassifier the combination
+     * @param instances        training plus testing instances
+     * @return the estimated nanoseconds
+     */
+    public double estimate(@NotNull CustomClassifier customClassifier, int instances) {
+        Double measured = nanosPerInstance.get(key(customClassifier));
+        return (measured != null ? measured : prior(customClassifier)) * Math.max(1, instances);
+    }
+
+    /**
+     * @param customClassifier the combination
+     * @param instances        training plus testing instances
+     * @param nanos            the measured time
+     */
+    public void record(@NotNull CustomClassifier customClassifier, int instances, long nanos) {
+        double measured = (double) nanos / Math.max(1, instances);
+        nanosPerInstance.merge(key(customClassifier), measured,
+                (old, last) -> (1 - NEW_WEIGHT) * old + NEW_WEIGHT * last);
+    }
+
+    public void save() {
+        try {
+            Files.createDirectories(file.getParent());
+            Path temp = file.resolveSibling(COSTS_FILE + ".tmp");
+            Files.writeString(temp, new JSONObject(nanosPerInstance).toString(2));
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            SeLogger.getInstance().getLogger().warning("classifier costs not saved: " + e.getMessage());
+        }
+    }
+
+    private static @NotNull String key(@NotNull CustomClassifier customClassifier) {
+        return customClassifier.getClassifierName() + '|' + customClassifier.getFeatureSelectionFilterName() + '|' +
+                customClassifier.getSamplingFilterName() + '|' + customClassifier.isCostSensitive();
+    }
+
+    private static double prior(@NotNull CustomClassifier customClassifier) {
+        double weight = switch (customClassifier.getClassifierName()) {
+            case "RandomForest" -> 10;
+            case "IBk" -> 4;
+            default -> 1;
+        };
+        weight *= switch (customClassifier.getSamplingFilterName()) {
+            case "SMOTE" -> 3;
+            case "OverSampling" -> 2;
+            case "UnderSampling" -> 0.5;
+            default -> 1;
+        };
+        if (!ComputeAllClassifiersCombinations.NO_SELECTION.equals(customClassifier.getFeatureSelectionFilterName())) {
+            weight *= 2;
+        }
+        return weight * PRIOR_NANOS_PER_INSTANCE;
+    }
+}
@@ -0,0 +1,266 @@
+package it.torvergata.ahmed.controller;
+
+import it.torvergata.ahmed.logging.SeLogger;
+import it.torvergata.ahmed.model.CodeSmell;
+import it.torvergata.ahmed.model.JavaClass;
+import it.torvergata.ahmed.utilities.AnalysisStore;
+import it.torvergata.ahmed.utilities.CodeSmellParser;
+import it.torvergata.ahmed.utilities.Scheduler;
+import it.torvergata.ahmed.utilities.SysConfig;
+import net.sourceforge.pmd.PMDConfiguration;
+import net.sourceforge.pmd.PmdAnalysis;
+import net.sourceforge.pmd.lang.document.FileId;
+import net.sourceforge.pmd.lang.document.TextFile;
+import net.sourceforge.pmd.lang.rule.RuleSet;
+import net.sourceforge.pmd.lang.rule.RuleSetLoader;
+import net.sourceforge.pmd.reporting.FileAnalysisListener;
+import net.sourceforge.pmd.reporting.GlobalAnalysisListener;
+import net.sourceforge.pmd.reporting.Report;
+import net.sourceforge.pmd.reporting.RuleViolation;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static it.torvergata.ahmed.controller.GitInjection.PMD_ANALYSIS;
+import static it.torvergata.ahmed.controller.GitInjection.PMD_RULESET;
+import static it.torvergata.ahmed.controller.GitInjection.RELEASE;
+
+/**
+ * Run PMD in process on release snapshots read straight from the object database: the violations of
+ * each file are counted on the methods of the target classes while the analysis runs, and saved per
+ * blob in the {@link AnalysisStore} so a file not changed between releases is analyzed once.
+ * The ruleset is loaded once and copied for each analysis, the snapshots run on at most
+ * {@code SYS_PMD_WORKERS} workers (default the CPU permits of the {@link Scheduler}), each one under a
+ * CPU permit. With {@code SYS_PMD_CSV_REPORT=true} the violations are also written
+ * to {@code pmdAnalysis/<project>/<snapshot>.csv} in the PMD csv format.
+ */
+public class CodeSmellEngine {
+
+    public static final String SYS_PMD_WORKERS = "SYS_PMD_WORKERS";
+    public static final String SYS_PMD_CSV_REPORT = "SYS_PMD_CSV_REPORT";
+    private static final String CSV_HEADER = "\"Problem\",\"Package\",\"File\",\"Priority\",\"Line\"," +
+            "\"Description\",\"Rule set\",\"Rule\"";
+
+    private static RuleSet sharedRuleSet;
+
+    private final Repository repository;
+    private final String project;
+    private final AnalysisStore store;
+    private final int workers;
+    private final boolean csvReport;
+
+    /**
+     * One snapshot to analyze and the classes its violations are counted on
+     *
+     * @param snapshotId the id of the snapshot (the release of the commit, 0 for the first commit)
+     * @param snapshot   the commit of the snapshot
+     * @param targets    the classes of the next release
+     */
+    public record Job(int snapshotId, RevCommit snapshot, List<JavaClass> targets) {
+    }
+
+    /**
+     * @param repository the repository
+     * @param project    the project
+     * @param store      the persistent store of the violations, can be null
+     */
+    public CodeSmellEngine(Repository repository, String project, @Nullable AnalysisStore store) {
+        this.repository = repository;
+        this.project = project;
+        this.store = store;
+        this.workers = Math.max(1, SysConfig.getInt(SYS_PMD_WORKERS, Scheduler.cpuPermits()));
+        this.csvReport = Boolean.parseBoolean(SysConfig.get(SYS_PMD_CSV_REPORT));
+    }
+
+    private static synchronized RuleSet ruleSet() {
+        if (sharedRuleSet == null) {
+            sharedRuleSet = new RuleSetLoader().loadFromResource(PMD_RULESET);
+        }
+        return sharedRuleSet;
+    }
+
+    /**
+     * Count the code smells of the target classes of every job
+     *
+     * @param jobs the snapshots to analyze
+     */
+    public void analyze(@NotNull List<Job> jobs) {
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(workers, Math.max(1, jobs.size())),
+                Thread.ofVirtual().name("pmd-" + project + "-", 0).factory());
+        try {
+            List<Future<?>> tasks = new ArrayList<>();
+            for (Job job : jobs) {
+                tasks.add(pool.submit(() -> Scheduler.cpu(() -> analyzeJob(job))));
+            }
+            for (Future<?> task : tasks) {
+                try {
+                    task.get();
+                } catch (ExecutionException e) {
+                    SeLogger.getInstance().getLogger().severe("pmd " + this.project + ": " + e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            SeLogger.getInstance().getLogger().severe("pmd " + this.project + " interrupted");
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private Void analyzeJob(@NotNull Job job) throws IOException {
+        Map<String, JavaClass> targets = HashMap.newHashMap(job.targets().size());
+        job.targets().forEach(javaClass -> targets.put(javaClass.getName(), javaClass));
+        if (targets.isEmpty()) {
+            return null;
+        }
+        Map<String, List<CodeSmell>> smellsByPath = new ConcurrentSkipListMap<>();
+        Map<String, ObjectId> toAnalyze = new LinkedHashMap<>();
+        try (ObjectReader reader = repository.newObjectReader();
+             TreeWalk treeWalk = new TreeWalk(reader)) {
+            treeWalk.addTree(job.snapshot().getTree());
+            treeWalk.setRecursive(true);
+            treeWalk.setFilter(PathFilterGroup.createFromStrings(targets.keySet()));
+            while (treeWalk.next()) {
+                String path = treeWalk.getPathString();
+                ObjectId blobId = treeWalk.getObjectId(0);
+                List<CodeSmell> cached = store != null ? store.getSmells(blobId) : null;
+                if (cached == null) {
+                    toAnalyze.put(path, blobId.copy());
+                    continue;
+                }
+                JavaClass javaClass = targets.get(path);
+                cached.forEach(smell -> CodeSmellParser.countSmell(javaClass, smell.getLine()));
+                smellsByPath.put(path, cached);
+            }
+            if (!toAnalyze.isEmpty()) {
+                runPmd(reader, toAnalyze, targets, smellsByPath);
+            }
+        }
+        String msg = "pmd " + this.project + " " + RELEASE + " " + job.snapshotId() + " for next " + RELEASE + " " +
+                (job.snapshotId() + 1) + ": files=" + smellsByPath.size() + " analyzed=" + toAnalyze.size();
+        SeLogger.getInstance().getLogger().info(msg);
+        if (csvReport) {
+            writeCsvReport(job.snapshotId(), smellsByPath);
+        }
+        return null;
+    }
+
+    private void runPmd(@NotNull ObjectReader reader, @NotNull Map<String, ObjectId> toAnalyze,
+                        @NotNull Map<String, JavaClass> targets, @NotNull Map<String, List<CodeSmell>> smellsByPath)
+            throws IOException {
+        PMDConfiguration configuration = new PMDConfiguration();
+        // one worker per analysis: the snapshots already run in parallel
+        configuration.setThreads(1);
+        configuration.setIgnoreIncrementalAnalysis(true);
+        try (PmdAnalysis pmd = PmdAnalysis.create(configuration)) {
+            pmd.addRuleSet(new RuleSet(ruleSet()));
+            for (Map.Entry<String, ObjectId> entry : toAnalyze.entrySet()) {
+                pmd.files().addSourceFile(FileId.fromPathLikeString(entry.getKey()),
+                        new String(reader.open(entry.getValue()).getBytes(), StandardCharsets.UTF_8));
+            }
+            pmd.addListener(new GlobalAnalysisListener() {
+                @Override
+                public FileAnalysisListener startFileAnalysis(TextFile file) {
+                    String path = file.getFileId().getOriginalPath();
+                    return new SmellListener(path, targets.get(path), toAnalyze.get(path), smellsByPath);
+                }
+
+                @Override
+                public void close() {
+                    // nothing to flush: each file is stored when its analysis ends
+                }
+            });
+            pmd.performAnalysis();
+        }
+    }
+
+    /**
+     * Streams the violations of one file into the methods of its class and, at the end of the file,
+     * into the store
+     */
+    private final class SmellListener implements FileAnalysisListener {
+
+        private final String path;
+        private final JavaClass javaClass;
+        private final ObjectId blobId;
+        private final Map<String, List<CodeSmell>> smellsByPath;
+        private final List<CodeSmell> smells = new ArrayList<>();
+        private boolean failed = false;
+
+        private SmellListener(String path, JavaClass javaClass, ObjectId blobId,
+                              Map<String, List<CodeSmell>> smellsByPath) {
+            this.path = path;
+            this.javaClass = javaClass;
+            this.blobId = blobId;
+            this.smellsByPath = smellsByPath;
+        }
+
+        @Override
+        public void onRuleViolation(RuleViolation violation) {
+            CodeSmell smell = new CodeSmell(violation.getBeginLine(), violation.getRule().getPriority().getPriority(),
+                    violation.getRule().getName(), violation.getRule().getRuleSetName(),
+                    violation.getAdditionalInfo().getOrDefault(RuleViolation.PACKAGE_NAME, ""),
+                    violation.getDescription());
+            smells.add(smell);
+            if (javaClass != null) {
+                synchronized (javaClass) {
+                    CodeSmellParser.countSmell(javaClass, smell.getLine());
+                }
+            }
+        }
+
+        @Override
+        public void onError(Report.ProcessingError error) {
+            failed = true;
+            SeLogger.getInstance().getLogger().warning("pmd " + project + " " + path + ": " + error.getMsg());
+        }
+
+        @Override
+        public void close() {
+            smellsByPath.put(path, Collections.unmodifiableList(smells));
+            if (store != null && blobId != null && !failed) {
+                store.putSmells(blobId, smells);
+            }
+        }
+    }
+
+    private void writeCsvReport(int snapshotId, @NotNull Map<String, List<CodeSmell>> smellsByPath) {
+        Path report = Path.of(PMD_ANALYSIS, this.project, snapshotId + ".csv");
+        int problem = 0;
+        try {
+            Files.createDirectories(report.getParent());
+            try (BufferedWriter writer = Files.newBufferedWriter(report)) {
+                writer.write(CSV_HEADER);
+                writer.newLine();
+                for (Map.Entry<String, List<CodeSmell>> entry : smellsByPath.entrySet()) {
+                    for (CodeSmell smell : entry.getValue()) {
+                        writer.write(String.join(",", quote(String.valueOf(++problem)),
+                                quote(smell.getPackageName()), quote(entry.getKey()),
+                                quote(String.valueOf(smell.getPriority())), quote(String.valueOf(smell.getLine())),
+                                quote(smell.getDescription()), quote(smell.getRuleSet()), quote(smell.getRule())));
+                        writer.newLine();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            SeLogger.getInstance().getLogger().severe("pmd report " + report + ": " + e.getMessage());
+        }
+    }
+
+    private static @NotNull String quote(String value) {
+        return "\"" + (value == null ? "" : value.replace("\"", "\"\"")) + "\"";
+    }
+}
@@ -0,0 +1,211 @@
+package it.torvergata.ahmed.controller;
+
+import it.torvergata.ahmed.logging.SeLogger;
+import it.torvergata.ahmed.model.Ticket;
+import it.torvergata.ahmed.utilities.Scheduler;
+import it.torvergata.ahmed.utilities.SysConfig;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Cold start proportion: the median of the mean proportions of other Apache projects, used while a
+ * project has too few tickets with affected versions. The means and the median are saved in
+ * {@code .temp/cold_start_proportion.json} with a format version, so the other projects are downloaded
+ * once for all the runs and targets. A saved result older than {@code SYS_COLD_START_TTL_HOURS} (default
+ * one week) is still used by the run and recomputed in the background for the next ones.
+ * <p>
+ * The projects are downloaded in parallel, each one under an I/O permit of the {@link Scheduler}. The
+ * first caller of the process starts the load, the others wait for the same future, then every call is a
+ * field read. A result missing some project is used but not saved.
+ */
+public final class ColdStartProportion {
+
+    public static final String SYS_COLD_START_TTL_HOURS = "SYS_COLD_START_TTL_HOURS";
+    public static final Path DEFAULT_FILE = Path.of(".temp", "cold_start_proportion.json");
+    private static final int FORMAT_VERSION = 1;
+    private static final int DEFAULT_TTL_HOURS = 7 * 24;
+    private static final String VERSION = "version";
+    private static final String COMPUTED_AT = "computedAt";
+    private static final String MEDIAN = "median";
+    private static final String PROJECTS = "projects";
+    private static final String NAME = "name";
+    private static final String MEAN_PROPORTION = "mean_proportion";
+
+    private static final AtomicReference<CompletableFuture<Result>> LOADED = new AtomicReference<>();
+
+    private enum OtherProjects {
+        AVRO,
+        SYNCOPE,
+        STORM,
+        TAJO,
+        ZOOKEEPER
+    }
+
+    /**
+     * @param median      the median of the means
+     * @param proportions project -> mean proportion, for the projects with enough tickets
+     * @param computedAt  when the projects were downloaded, epoch millis
+     * @param complete    true when no project failed to download
+     */
+    public record Result(double median, Map<String, Double> proportions, long computedAt, boolean complete) {
+
+        /**
+         * @return the projects and their means as in the proportion report
+         */
+        public @NotNull JSONArray toJson() {
+            JSONArray array = new JSONArray();
+            proportions.forEach((name, proportion) ->
+                    array.put(new JSONObject().put(NAME, name).put(MEAN_PROPORTION, proportion)));
+            return array;
+        }
+    }
+
+    private ColdStartProportion() {
+    }
+
+    /**
+     * @return the cold start proportion, loaded or computed by the first call of the process
+     */
+    public static @NotNull Result get() {
+        CompletableFuture<Result> loaded = LOADED.get();
+        if (loaded == null) {
+            CompletableFuture<Result> created = new CompletableFuture<>();
+            if (LOADED.compareAndSet(null, created)) {
+                try {
+                    created.complete(load(DEFAULT_FILE));
+                } catch (RuntimeException e) {
+                    created.completeExceptionally(e);
+                }
+            }
+            loaded = LOADED.get();
+        }
+        return loaded.join();
+    }
+
+    private static @NotNull Result load(@NotNull Path file) {
+        Duration ttl = Duration.ofHours(Math.max(0, SysConfig.getInt(SYS_COLD_START_TTL_HOURS, DEFAULT_TTL_HOURS)));
+        Result stored = read(file);
+        if (stored != null) {
+            if (System.currentTimeMillis() - stored.computedAt() >= ttl.toMillis()) {
+                Thread.ofVirtual().name("cold-start-refresh").start(() -> save(file, compute()));
+            }
+            String msg = "cold start: " + stored.median() + " (saved)";
+            SeLogger.getInstance().getLogger().info(msg);
+            return stored;
+        }
+        Result computed = compute();
+        save(file, computed);
+        String msg = "cold start: " + computed.median();
+        SeLogger.getInstance().getLogger().info(msg);
+        return computed;
+    }
+
+    /**
+     * Download the other projects in parallel and compute their mean proportions
+     */
+    private static @NotNull Result compute() {
+        long computedAt = System.currentTimeMillis();
+        List<Future<Double>> means = new ArrayList<>();
+        try (ExecutorService executor = Scheduler.newExecutor("cold-start")) {
+            for (OtherProjects project : OtherProjects.values()) {
+                means.add(executor.submit(() -> Scheduler.io(() -> meanProportion(project.name()))));
+            }
+        }
+        Map<String, Double> proportions = new LinkedHashMap<>();
+        boolean complete = true;
+        for (int i = 0; i < means.size(); i++) {
+            Future<Double> mean = means.get(i);
+            if (mean.state() != Future.State.SUCCESS) {
+                complete = false;
+                String msg = "cold start project " + OtherProjects.values()[i] + " failed: " +
+                        (mean.state() == Future.State.FAILED ? mean.exceptionNow().getMessage() : mean.state());
+                SeLogger.getInstance().getLogger().severe(msg);
+            } else if (mean.resultNow() != null) {
+                proportions.put(OtherProjects.values()[i].name(), mean.resultNow());
+            }
+        }
+        List<Double> sorted = new ArrayList<>(proportions.values());
+        Collections.sort(sorted);
+        double median = 0.0;
+        int size = sorted.size();
+        if (size > 0) {
+            median = (size % 2 == 0)
+                    ? (sorted.get((size / 2) - 1) + sorted.get(size / 2)) / 2
+                    : sorted.get(size / 2);
+        }
+        return new Result(median, Collections.unmodifiableMap(proportions), computedAt, complete);
+    }
+
+    /**
+     * @return the mean proportion of the tickets with affected versions of the project, null when they
+     * are too few
+     */
+    private static @Nullable Double meanProportion(@NotNull String project) throws IOException {
+        JiraInjection jiraInjection = new JiraInjection(project);
+        jiraInjection.injectReleases();
+        jiraInjection.pullIssues();
+        jiraInjection.filterFixedNormally();
+        List<Ticket> filteredTickets = jiraInjection.getTicketsWithAffectedVersion();
+        if (filteredTickets.size() < PreProcessProportion.THRESHOLD_FOR_COLD_START) {
+            return null;
+        }
+        return PreProcessProportion.getTotalProportion(filteredTickets) / filteredTickets.size();
+    }
+
+    private static @Nullable Result read(@NotNull Path file) {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try {
+            JSONObject stored = new JSONObject(Files.readString(file));
+            if (stored.optInt(VERSION) != FORMAT_VERSION) {
+                return null;
+            }
+            Map<String, Double> proportions = new LinkedHashMap<>();
+            JSONArray projects = stored.getJSONArray(PROJECTS);
+            for (int i = 0; i < projects.length(); i++) {
+                JSONObject project = projects.getJSONObject(i);
+                proportions.put(project.getString(NAME), project.getDouble(MEAN_PROPORTION));
+            }
+            return new Result(stored.getDouble(MEDIAN), Collections.unmodifiableMap(proportions),
+                    stored.getLong(COMPUTED_AT), true);
+        } catch (IOException | JSONException e) {
+            SeLogger.getInstance().getLogger().warning("cold start proportion not loaded: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static void save(@NotNull Path file, @NotNull Result result) {
+        if (!result.complete()) {
+            return;
+        }
+        try {
+            Files.createDirectories(file.getParent());
+            JSONObject stored = new JSONObject().put(VERSION, FORMAT_VERSION).put(COMPUTED_AT, result.computedAt())
+                    .put(MEDIAN, result.median()).put(PROJECTS, result.toJson());
+            Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+            try {
+                Files.writeString(temp, stored.toString(2));
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException e) {
+            SeLogger.getInstance().getLogger().warning("cold start proportion not saved: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package it.torvergata.ahmed.controller;
+
+import it.torvergata.ahmed.logging.SeLogger;
+import it.torvergata.ahmed.model.Commit;
+import it.torvergata.ahmed.model.Release;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Commit ingestion engine: every branch head is marked as a start point of one single {@link RevWalk}
+ * so each commit of the history is streamed exactly once, then it is assigned to the first release
+ * whose date is not before the commit date (binary search over the releases sorted by date).
+ */
+public class CommitIngestion {
+
+    private static final int PROGRESS_STEP = 10_000;
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+    private static final LocalDate LOWER_BOUND_DATE = LocalDate.ofInstant(Instant.EPOCH, ZONE);
+
+    private final Repository repository;
+    private final List<Release> releases;
+    private final LocalDate[] releaseDates;
+    private final String logName;
+
+    /**
+     * @param repository the local repository
+     * @param releases   the releases sorted by release date
+     * @param logName    prefix used in the log messages
+     */
+    public CommitIngestion(Repository repository, @NotNull List<Release> releases, String logName) {
+        this.repository = repository;
+        this.releases = releases;
+        this.releaseDates = new LocalDate[releases.size()];
+        for (int i = 0; i < releases.size(); i++) {
+            this.releaseDates[i] = releases.get(i).getReleaseDate();
+        }
+        this.logName = logName;
+    }
+
+    /**
+     * Walk the history reachable from all the branches and link each commit with its release
+     *
+     * @param branches all the branches (local and remote) of the repository
+     * @return the commits linked to a release sorted by commit time
+     */
+    public @NotNull List<Commit> ingest(@NotNull List<Ref> branches) throws IOException {
+        List<Commit> commits = new ArrayList<>();
+        long start = System.nanoTime();
+        long walked = 0;
+        try (RevWalk revWalk = new RevWalk(repository)) {
+            for (Ref branch : branches) {
+                RevObject head = revWalk.parseAny(branch.getObjectId());
+                if (head instanceof RevCommit revCommit) {
+                    revWalk.markStart(revCommit);
+                }
+            }
+            for (RevCommit revCommit : revWalk) {
+                walked++;
+                Release release = findRelease(commitDate(revCommit));
+                if (release != null) {
+                    commits.add(new Commit(revCommit, release));
+                }
+                if (walked % PROGRESS_STEP == 0) {
+                    logRate(walked, start);
+                }
+            }
+        }
+        commits.sort(Comparator.comparingInt(commit -> commit.getRevCommit().getCommitTime()));
+        for (Commit commit : commits) {
+            commit.getRelease().addCommit(commit);
+        }
+        logRate(walked, start);
+        return commits;
+    }
+
+    /**
+     * The release of a commit is the first one released on or after the commit date
+     *
+     * @param commitDate the commit date
+     * @return the release or null when the commit comes after the last release
+     */
+    private @Nullable Release findRelease(@NotNull LocalDate commitDate) {
+        if (!commitDate.isAfter(LOWER_BOUND_DATE)) {
+            return null;
+        }
+        int low = 0;
+        int high = releaseDates.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (releaseDates[mid].isBefore(commitDate)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low < releaseDates.length ? releases.get(low) : null;
+    }
+
+    private void logRate(long walked, long start) {
+        double seconds = Math.max(1e-9, (System.nanoTime() - start) / 1e9);
+        String msg = String.format("%s[ingest]: commits=%d elapsed=%.2fs rate=%.0f commits/s", logName,
+                walked, seconds, walked / seconds);
+        SeLogger.getInstance().getLogger().info(msg);
+    }
+
+    /**
+     * Committer date of the commit in the local time zone
+     *
+     * @param revCommit the commit
+     * @return the date without time
+     */
+    public static @NotNull LocalDate commitDate(@NotNull RevCommit revCommit) {
+        return LocalDate.ofInstant(Instant.ofEpochSecond(revCommit.getCommitTime()), ZONE);
+    }
+}
@@ -1,8 +1,13 @@
 package it.torvergata.ahmed.controller;
 
+import it.torvergata.ahmed.model.ClassifierSpec;
+import it.torvergata.ahmed.model.ClassifierSpec.Balancing;
+import it.torvergata.ahmed.model.ClassifierSpec.Learner;
 import it.torvergata.ahmed.model.CustomClassifier;
+import it.torvergata.ahmed.utilities.FilterResultCache;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.jetbrains.annotations.Unmodifiable;
 import weka.attributeSelection.BestFirst;
 import weka.classifiers.Classifier;
@@ -13,6 +18,8 @@ import weka.classifiers.meta.CostSensitiveClassifier;
 import weka.classifiers.meta.FilteredClassifier;
 import weka.classifiers.trees.RandomForest;
 import weka.core.AttributeStats;
+import weka.core.Instances;
+import weka.core.Randomizable;
 import weka.core.SelectedTag;
 import weka.filters.Filter;
 import weka.filters.supervised.attribute.AttributeSelection;
@@ -22,182 +29,249 @@ import weka.filters.supervised.instance.SpreadSubsample;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 /**
  * Utility class for generating all meaningful combinations of classifiers
  * with optional sampling, feature selection, and cost-sensitive learning.
+ * <p>
+ * Every combination is a {@link ClassifierSpec}, and every call of {@link #newClassifier} builds a new
+ * pipeline sharing no learner, filter or cost matrix with the others, so all the combinations can be
+ * trained concurrently.
  */
 public class ComputeAllClassifiersCombinations {
     public static final String NO_SELECTION = "NoSelection";
     public static final String NO_SAMPLING = "NoSampling";
     public static final double WEIGHT_FALSE_POSITIVE = 1.0;
     public static final double WEIGHT_FALSE_NEGATIVE = 10.0;
+    private static final int BEST_FIRST_BIDIRECTIONAL = 2;
+
+    private static final List<Learner> LEARNERS = List.of(Learner.RANDOM_FOREST, Learner.NAIVE_BAYES, Learner.IBK);
+    private static final List<Balancing> SAMPLINGS = List.of(Balancing.OVER_SAMPLING, Balancing.UNDER_SAMPLING,
+            Balancing.SMOTE);
 
     private ComputeAllClassifiersCombinations() {}
 
     /**
-     * Generate a list of all classifier configurations based on input class statistics.
+     * A combination ready to train: its filters already applied through the cache
      *
-     * @param isBuggyAttributeStats AttributeStats for the target class
-     * @return list of all {@link CustomClassifier} configurations
+     * @param classifier the rest of the pipeline, seeded as the filtering wrappers would do
+     * @param training   the filtered training set, shared
+     * @param testing    the filtered testing set, shared
      */
-    public static @NotNull List<CustomClassifier> returnAllClassifiersCombinations(@NotNull AttributeStats isBuggyAttributeStats) {
-        List<Classifier> classifiers = List.of(new RandomForest(), new NaiveBayes(), new IBk());
-        List<AttributeSelection> featureSelections = getFeatureSelectionFilters();
-        int majority = isBuggyAttributeStats.nominalCounts[1];
-        int minority = isBuggyAttributeStats.nominalCounts[0];
-        List<Filter> samplings = getSamplingFilters(majority, minority);
-
-        List<CustomClassifier> result = new ArrayList<>();
-        basicClassifiers(classifiers, result);
-        onlyFeatureSelectionClassifiers(classifiers, featureSelections, result);
-        onlySamplingClassifiers(classifiers, samplings, result);
-        onlyCostSensitiveClassifiers(classifiers, result);
-        featureSelectionAndSamplingClassifiers(classifiers, featureSelections, samplings, result);
-        featureSelectionAndCostSensitiveClassifiers(classifiers, featureSelections, result);
-        return result;
+    public record Prepared(Classifier classifier, Instances training, Instances testing) {
     }
 
     /**
-     * Add basic classifiers with no sampling, feature selection, or cost-sensitive configuration.
+     * Generate a list of all classifier configurations; their pipelines are built when they are trained.
+     *
+     * @return list of all {@link CustomClassifier} configurations
      */
-    private static void basicClassifiers(@NotNull List<Classifier> classifiers, List<CustomClassifier> result) {
-        for (Classifier c : classifiers) {
-            result.add(new CustomClassifier(c, c.getClass().getSimpleName(), NO_SELECTION, null, NO_SAMPLING, false));
+    public static @NotNull List<CustomClassifier> returnAllClassifiersCombinations() {
+        String featureSelectionName = featureSelectionName();
+        List<CustomClassifier> result = new ArrayList<>();
+        for (ClassifierSpec spec : specs()) {
+            result.add(new CustomClassifier(spec, featureSelectionName));
         }
+        return result;
     }
 
     /**
-     * Add classifiers with feature selection filters only.
+     * @return all the combinations: basic, only feature selection, only sampling, only cost-sensitive,
+     * feature selection and sampling, feature selection and cost-sensitive
      */
-    private static void onlyFeatureSelectionClassifiers(List<Classifier> classifiers, List<AttributeSelection> filters, List<CustomClassifier> result) {
-        for (AttributeSelection filter : filters) {
-            for (Classifier c : classifiers) {
-                FilteredClassifier fc = new FilteredClassifier();
-                fc.setFilter(filter);
-                fc.setClassifier(c);
-                result.add(new CustomClassifier(fc, c.getClass().getSimpleName(), filter.getSearch().getClass().getSimpleName(), ((BestFirst)filter.getSearch()).getDirection().getSelectedTag().getReadable(), NO_SAMPLING, false));
+    public static @NotNull @Unmodifiable List<ClassifierSpec> specs() {
+        List<ClassifierSpec> specs = new ArrayList<>();
+        for (Learner learner : LEARNERS) {
+            specs.add(new ClassifierSpec(learner, false, Balancing.NONE, false));
+        }
+        for (Learner learner : LEARNERS) {
+            specs.add(new ClassifierSpec(learner, true, Balancing.NONE, false));
+        }
+        for (Balancing sampling : SAMPLINGS) {
+            for (Learner learner : LEARNERS) {
+                specs.add(new ClassifierSpec(learner, false, sampling, false));
             }
         }
-    }
-
-    /**
-     * Add classifiers with sampling filters only.
-     */
-    private static void onlySamplingClassifiers(List<Classifier> classifiers, List<Filter> filters, List<CustomClassifier> result) {
-        for (Filter f : filters) {
-            for (Classifier c : classifiers) {
-                FilteredClassifier fc = new FilteredClassifier();
-                fc.setFilter(f);
-                fc.setClassifier(c);
-                result.add(new CustomClassifier(fc, c.getClass().getSimpleName(), NO_SELECTION, null, f.getClass().getSimpleName(), false));
+        for (Learner learner : LEARNERS) {
+            specs.add(new ClassifierSpec(learner, false, Balancing.NONE, true));
+        }
+        for (Balancing sampling : SAMPLINGS) {
+            for (Learner learner : LEARNERS) {
+                specs.add(new ClassifierSpec(learner, true, sampling, false));
             }
         }
+        for (Learner learner : LEARNERS) {
+            specs.add(new ClassifierSpec(learner, true, Balancing.NONE, true));
+        }
+        return List.copyOf(specs);
     }
 
     /**
-     * Add classifiers using cost-sensitive configuration only.
+     * Build a new pipeline: learner, wrapped by the sampling filter or by the cost-sensitive classifier,
+     * wrapped by the feature selection.
+     *
+     * @param spec                  the combination
+     * @param isBuggyAttributeStats AttributeStats for the target class of the training set
+     * @return the untrained pipeline
      */
-    private static void onlyCostSensitiveClassifiers(List<Classifier> classifiers, List<CustomClassifier> result) {
-        for (Classifier c : classifiers) {
-            for (CostSensitiveClassifier cost : getCostSensitiveFilters()) {
-                cost.setClassifier(c);
-                result.add(new CustomClassifier(cost, c.getClass().getSimpleName(), NO_SELECTION, null, NO_SAMPLING, true));
-            }
+    public static @NotNull Classifier newClassifier(@NotNull ClassifierSpec spec,
+                                                    @NotNull AttributeStats isBuggyAttributeStats) {
+        Classifier classifier = newLearner(spec.learner());
+        if (spec.balancing() != Balancing.NONE) {
+            FilteredClassifier sampled = new FilteredClassifier();
+            sampled.setFilter(newSamplingFilter(spec.balancing(), isBuggyAttributeStats.nominalCounts[1],
+                    isBuggyAttributeStats.nominalCounts[0]));
+            sampled.setClassifier(classifier);
+            classifier = sampled;
+        }
+        if (spec.costSensitive()) {
+            CostSensitiveClassifier cost = newCostSensitiveClassifier();
+            cost.setClassifier(classifier);
+            classifier = cost;
         }
+        if (spec.featureSelection()) {
+            FilteredClassifier selected = new FilteredClassifier();
+            selected.setFilter(newFeatureSelection());
+            selected.setClassifier(classifier);
+            classifier = selected;
+        }
+        return classifier;
     }
 
     /**
-     * Add classifiers using both feature selection and sampling filters.
+     * Prepare a combination for a training window: the feature selection and the balancing filter are
+     * taken from the cache, the learner (wrapped by the cost-sensitive classifier) gets the seed the
+     * {@link FilteredClassifier} wrappers of {@link #newClassifier} would give it, so the evaluation is the
+     * same as the whole pipeline. With weighted instances the wrappers resample, then the whole pipeline
+     * is returned with the unfiltered sets.
+     *
+     * @param spec        the combination
+     * @param training    the training set
+     * @param testing     the testing set
+     * @param fingerprint the fingerprint of the training set
+     * @param cache       the filter results of the training window
+     * @return the classifier and the sets to train and evaluate it on
      */
-    private static void featureSelectionAndSamplingClassifiers(List<Classifier> classifiers, List<AttributeSelection> featureSelections, List<Filter> samplings, List<CustomClassifier> result) {
-        for (AttributeSelection feature : featureSelections) {
-            for (Filter sampling : samplings) {
-                for (Classifier c : classifiers) {
-                    FilteredClassifier inner = new FilteredClassifier();
-                    inner.setFilter(sampling);
-                    inner.setClassifier(c);
-
-                    FilteredClassifier outer = new FilteredClassifier();
-                    outer.setFilter(feature);
-                    outer.setClassifier(inner);
-
-                    result.add(new CustomClassifier(outer, c.getClass().getSimpleName(), feature.getSearch().getClass().getSimpleName(), ((BestFirst)feature.getSearch()).getDirection().getSelectedTag().getReadable(), sampling.getClass().getSimpleName(), false));
-                }
+    public static @NotNull Prepared prepare(@NotNull ClassifierSpec spec, @NotNull Instances training,
+                                            @NotNull Instances testing, long fingerprint,
+                                            @NotNull FilterResultCache cache) throws Exception {
+        AttributeStats isBuggyAttributeStats = training.attributeStats(training.classIndex());
+        if (!training.allInstanceWeightsIdentical()) {
+            return new Prepared(newClassifier(spec, isBuggyAttributeStats), training, testing);
+        }
+        Instances trainingSet = training;
+        Instances testingSet = testing;
+        long trainingFingerprint = fingerprint;
+        Integer seed = null;
+        if (spec.featureSelection()) {
+            FilterResultCache.Filtered selected = cache.get(trainingFingerprint, newFeatureSelection(),
+                    trainingSet, testingSet);
+            seed = wrapperRandom(trainingSet, null).nextInt();
+            trainingSet = selected.training();
+            testingSet = selected.testing();
+            trainingFingerprint = selected.fingerprint();
+        }
+        if (spec.balancing() != Balancing.NONE) {
+            Random random = wrapperRandom(trainingSet, seed);
+            Filter sampling = newSamplingFilter(spec.balancing(), isBuggyAttributeStats.nominalCounts[1],
+                    isBuggyAttributeStats.nominalCounts[0]);
+            if (sampling instanceof Randomizable randomizable) {
+                randomizable.setSeed(random.nextInt());
             }
+            // instance filters leave the testing set unchanged
+            trainingSet = cache.get(trainingFingerprint, sampling, trainingSet, null).training();
+            seed = random.nextInt();
+        }
+        Classifier classifier = newLearner(spec.learner());
+        if (spec.costSensitive()) {
+            CostSensitiveClassifier cost = newCostSensitiveClassifier();
+            cost.setClassifier(classifier);
+            classifier = cost;
         }
+        if (seed != null && classifier instanceof Randomizable randomizable) {
+            randomizable.setSeed(seed);
+        }
+        return new Prepared(classifier, trainingSet, testingSet);
     }
 
     /**
-     * Add classifiers using both feature selection and cost-sensitive configuration.
+     * The generator of {@link FilteredClassifier#buildClassifier}: it seeds the filter and then the inner
+     * classifier
+     *
+     * @param data the data the wrapper is trained on
+     * @param seed the seed given to the wrapper, null for its default
      */
-    private static void featureSelectionAndCostSensitiveClassifiers(List<Classifier> classifiers, List<AttributeSelection> featureSelections, List<CustomClassifier> result) {
-        for (Classifier c : classifiers) {
-            for (CostSensitiveClassifier cost : getCostSensitiveFilters()) {
-                for (AttributeSelection feature : featureSelections) {
-                    FilteredClassifier filtered = new FilteredClassifier();
-                    filtered.setFilter(feature);
-                    cost.setClassifier(c);
-                    filtered.setClassifier(cost);
-                    result.add(new CustomClassifier(filtered, c.getClass().getSimpleName(), feature.getSearch().getClass().getSimpleName(), ((BestFirst)feature.getSearch()).getDirection().getSelectedTag().getReadable(), NO_SAMPLING, true));
-                }
-            }
-        }
+    private static @NotNull Random wrapperRandom(@NotNull Instances data, @Nullable Integer seed) {
+        int wrapperSeed = seed != null ? seed : new FilteredClassifier().getSeed();
+        return data.numInstances() > 0 ? data.getRandomNumberGenerator(wrapperSeed) : new Random(wrapperSeed);
     }
 
     /**
-     * Compute oversampling and SMOTE percentages and create sampling filters.
+     * @return the name of the feature selection in the results, search and direction
      */
-    private static @NotNull List<Filter> getSamplingFilters(int majority, int minority) {
-        double oversamplePercent = ((100.0 * majority) / (majority + minority)) * 2;
-        double smotePercent = (minority == 0 || minority > majority) ? 0 : ((100.0 * (majority - minority)) / minority);
-        return createSamplingFilters(oversamplePercent, smotePercent);
+    public static @NotNull String featureSelectionName() {
+        BestFirst best = (BestFirst) newFeatureSelection().getSearch();
+        return best.getClass().getSimpleName() + "(" + best.getDirection().getSelectedTag().getReadable() + ")";
+    }
+
+    @Contract("_ -> new")
+    private static @NotNull Classifier newLearner(@NotNull Learner learner) {
+        return switch (learner) {
+            case RANDOM_FOREST -> new RandomForest();
+            case NAIVE_BAYES -> new NaiveBayes();
+            case IBK -> new IBk();
+        };
     }
 
     /**
-     * Create and configure list of Resample, Spread sub sample, and SMOTE filters.
+     * Compute oversampling and SMOTE percentages and create the sampling filter.
      */
-    private static @NotNull List<Filter> createSamplingFilters(double oversamplePercent, double smotePercent) {
-        List<Filter> filters = new ArrayList<>();
-
-        Resample resample = new Resample();
-        resample.setBiasToUniformClass(1.0);
-        resample.setSampleSizePercent(oversamplePercent);
-        filters.add(resample);
-
-        SpreadSubsample spread = new SpreadSubsample();
-        spread.setDistributionSpread(1.0);
-        filters.add(spread);
-
-        SMOTE smote = new SMOTE();
-        smote.setClassValue("1");
-        smote.setPercentage(smotePercent);
-        filters.add(smote);
-
-        return filters;
+    private static @NotNull Filter newSamplingFilter(@NotNull Balancing balancing, int majority, int minority) {
+        switch (balancing) {
+            case OVER_SAMPLING -> {
+                Resample resample = new Resample();
+                resample.setBiasToUniformClass(1.0);
+                resample.setSampleSizePercent(((100.0 * majority) / (majority + minority)) * 2);
+                return resample;
+            }
+            case UNDER_SAMPLING -> {
+                SpreadSubsample spread = new SpreadSubsample();
+                spread.setDistributionSpread(1.0);
+                return spread;
+            }
+            case SMOTE -> {
+                SMOTE smote = new SMOTE();
+                smote.setClassValue("1");
+                smote.setPercentage((minority == 0 || minority > majority) ? 0 :
+                        ((100.0 * (majority - minority)) / minority));
+                return smote;
+            }
+            default -> throw new IllegalArgumentException("no sampling filter for " + balancing);
+        }
     }
 
     /**
      * Create attribute selection filter using BestFirst strategy.
      */
     @Contract(" -> new")
-    private static @NotNull @Unmodifiable List<AttributeSelection> getFeatureSelectionFilters() {
+    private static @NotNull AttributeSelection newFeatureSelection() {
         AttributeSelection selection = new AttributeSelection();
         BestFirst best = new BestFirst();
-        best.setDirection(new SelectedTag(2, best.getDirection().getTags()));
+        best.setDirection(new SelectedTag(BEST_FIRST_BIDIRECTIONAL, best.getDirection().getTags()));
         selection.setSearch(best);
-        return List.of(selection);
+        return selection;
     }
 
     /**
-     * Create list containing one CostSensitiveClassifier using default cost matrix.
+     * Create a CostSensitiveClassifier using the default cost matrix.
      */
     @Contract(" -> new")
-    private static @NotNull @Unmodifiable List<CostSensitiveClassifier> getCostSensitiveFilters() {
+    private static @NotNull CostSensitiveClassifier newCostSensitiveClassifier() {
         CostSensitiveClassifier csc = new CostSensitiveClassifier();
         csc.setMinimizeExpectedCost(false);
         csc.setCostMatrix(createCostMatrix());
-        return List.of(csc);
+        return csc;
     }
 
     /**
@@ -1,48 +1,33 @@
 package it.torvergata.ahmed.controller;
 
-import com.github.javaparser.ParseProblemException;
-import com.github.javaparser.StaticJavaParser;
-import com.github.javaparser.ast.CompilationUnit;
-import com.github.javaparser.ast.body.MethodDeclaration;
-import com.github.javaparser.ast.expr.MethodCallExpr;
-import it.torvergata.ahmed.Main;
 import it.torvergata.ahmed.logging.SeLogger;
 import it.torvergata.ahmed.model.*;
-import it.torvergata.ahmed.utilities.CodeSmellParser;
-import it.torvergata.ahmed.utilities.JavaParserUtil;
+import it.torvergata.ahmed.utilities.AnalysisStore;
+import it.torvergata.ahmed.utilities.CallGraphIndex;
+import it.torvergata.ahmed.utilities.CommitDiffIndex;
+import it.torvergata.ahmed.utilities.ParseCache;
+import it.torvergata.ahmed.utilities.Scheduler;
 import it.torvergata.ahmed.utilities.Sink;
+import it.torvergata.ahmed.utilities.TicketKeyMatcher;
 import lombok.Getter;
 import lombok.Setter;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.ListBranchCommand;
-import org.eclipse.jgit.api.ResetCommand;
 import org.eclipse.jgit.api.errors.*;
-import org.eclipse.jgit.diff.DiffEntry;
-import org.eclipse.jgit.diff.DiffFormatter;
-import org.eclipse.jgit.diff.Edit;
-import org.eclipse.jgit.diff.RawTextComparator;
 import org.eclipse.jgit.internal.storage.file.FileRepository;
 import org.eclipse.jgit.lib.*;
 import org.eclipse.jgit.revwalk.RevCommit;
-import org.eclipse.jgit.revwalk.RevTree;
-import org.eclipse.jgit.treewalk.CanonicalTreeParser;
-import org.eclipse.jgit.treewalk.TreeWalk;
-import org.eclipse.jgit.treewalk.filter.PathSuffixFilter;
-import org.eclipse.jgit.util.io.DisabledOutputStream;
-import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.*;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.text.SimpleDateFormat;
+import java.nio.file.Path;
 import java.time.LocalDate;
 import java.util.*;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
-import java.util.regex.Pattern;
 
 /**
  * Class controller responsible to link Jira-Ticket with GitHub commits and fill all the metadata
@@ -52,12 +37,12 @@ public class GitInjection {
     private static final String TEMP = ".temp" + File.separator;
     private static final String GIT = File.separator + ".git";
     public static final String PMD_ANALYSIS = "pmdAnalysis";
+    public static final String PMD_RULESET = "pmd/custom.xml";
     public static final String RELEASE = "release";
     public static final String TEST = "Test";
     public static final String JAVA_EXTENTION = ".java";
     public static final String SYS_CUT_PERCENTAGE = "SYS_CUT_PERCENTAGE";
     private final String repoPath;
-    private final String lastBranch;
     @Getter
     @Setter
     private List<Ticket> tickets;
@@ -69,18 +54,44 @@ public class GitInjection {
     @Getter
     private List<Commit> commits;
     private ArrayList<Commit> commitsWithIssues;
-    private static final String LOCAL_DATE_FORMAT = "yyyy-MM-dd";
 
     private ArrayList<JavaClass> javaClasses;
+    /**
+     * release id -> file path -> class, kept in sync with {@link #javaClasses}
+     */
+    private final Map<Integer, Map<String, JavaClass>> classIndex = new HashMap<>();
+    /**
+     * class -> position in {@link #javaClasses}, the bit of the class in the walk-forward labels
+     */
+    private Map<JavaClass, Integer> classOrdinals = null;
     @Getter
     private final Map<RevCommit, List<String>> modifiedClassesForCommit;
     @Getter
     private Map<Release, List<JavaClass>> javaClassPerRelease = null;
     @Getter
     private final String project;
+    @Getter
     private final double limitPercentage;
     private final Logger logger = SeLogger.getInstance().getLogger();
     private final String logName;
+    /**
+     * Persistent parse results and diff stats, null when the cache directory is not usable
+     */
+    private final AnalysisStore analysisStore;
+    /**
+     * Parse results shared by all the snapshots and commits of this project
+     */
+    private final ParseCache parseCache;
+    /**
+     * Touched files and line counts of every commit, shared by the labelling and the LOC metrics
+     */
+    private CommitDiffIndex diffIndex;
+    /**
+     * Fingerprints of the last run, used to skip the releases and the walk-forward steps not changed
+     */
+    @Getter
+    private final IncrementalState incrementalState;
+    private Set<Release> changedReleases = Collections.emptySet();
 
     /**
      * Constructor of GiraInjection
@@ -103,11 +114,14 @@ public class GitInjection {
         }
         this.releases = releaseList;
         this.tickets = null;
-        this.modifiedClassesForCommit = new HashMap<>();
+        this.modifiedClassesForCommit = new ConcurrentHashMap<>();
         this.logName = this.getClass().getSimpleName() + "#" + targetName;
-        this.lastBranch = repository.getBranch();
         limitPercentage = Double.parseDouble(System.getProperty(SYS_CUT_PERCENTAGE));
         infoLog("setup percentage for releases: " + limitPercentage);
+        Path cacheDir = AnalysisStore.directory(targetName);
+        this.analysisStore = AnalysisStore.open(cacheDir);
+        this.parseCache = new ParseCache(this.analysisStore);
+        this.incrementalState = IncrementalState.load(cacheDir, logName);
     }
 
 
@@ -128,42 +142,18 @@ public class GitInjection {
      * used to inject commits in the revCommitList
      */
     public void injectCommits() throws GitAPIException, IOException {
-        List<RevCommit> revCommits = new ArrayList<>();
         List<Ref> allBranch = localGithub.branchList().setListMode(ListBranchCommand.ListMode.ALL).call();
-        for (Ref branch : allBranch) {
-            Iterable<RevCommit> branchCommits = localGithub.log().add(this.repository.resolve(branch.getName())).call();
-            for (RevCommit branchCommit : branchCommits) {
-                if (!revCommits.contains(branchCommit)) {
-                    revCommits.add(branchCommit);
-                }
-            }
-        }
-        revCommits.sort(Comparator.comparing(revCommit -> Date.from(
-                revCommit.getCommitterIdent().getWhenAsInstant())));
-        this.commits = new ArrayList<>();
-        for (RevCommit revCommit : revCommits) {
-            SimpleDateFormat formatter = new SimpleDateFormat(GitInjection.LOCAL_DATE_FORMAT);
-            LocalDate commitDate = LocalDate.parse(formatter.format(Date.from(revCommit.getCommitterIdent()
-                    .getWhenAsInstant())));
-            LocalDate lowerBoundDate = LocalDate.parse(formatter.format(new Date(0)));
-
-            for (Release release : this.releases) {
-                LocalDate dateOfRelease = release.getReleaseDate();
-                if (commitDate.isAfter(lowerBoundDate) && !commitDate.isAfter(dateOfRelease)) {
-                    Commit newCommit = new Commit(revCommit, release);
-                    this.commits.add(newCommit);
-                    release.addCommit(newCommit);
-                }
-                lowerBoundDate = dateOfRelease;
-            }
-        }
+        this.releases.sort(Comparator.comparing(Release::getReleaseDate));
+        this.commits = new CommitIngestion(this.repository, this.releases, this.logName).ingest(allBranch);
         this.releases.removeIf(release -> release.getCommitList().isEmpty());
         int i = 0;
         for (Release release : this.releases) {
             release.setId(++i);
         }
-        this.commits.sort(Comparator.comparing(o -> Date.from(o.getRevCommit().getCommitterIdent()
-                .getWhenAsInstant())));
+        int newCommits = this.incrementalState.recordBranches(this.repository, allBranch);
+        this.changedReleases = this.incrementalState.recordReleases(this.releases);
+        infoLog("commits=" + this.commits.size() + " new since last run=" + newCommits + " changed releases=" +
+                this.changedReleases.size() + "/" + this.releases.size());
     }
 
     /**
@@ -172,19 +162,17 @@ public class GitInjection {
     public void preprocessCommitsWithIssue() {
         this.commitsWithIssues = new ArrayList<>();
 
+        TicketKeyMatcher matcher = new TicketKeyMatcher(this.tickets);
         for (Commit commit : this.commits) {
-
-            for (Ticket ticket : this.tickets) {
-                String fullMessage = commit.getRevCommit().getFullMessage();
-                String ticketKey = ticket.getTicketKey();
-                if (Pattern.compile(ticketKey + "\\b").matcher(fullMessage).find()) {
-                    this.commitsWithIssues.add(commit);
-                    ticket.addCommit(commit);
-                    commit.setTicket(ticket);
-                }
+            for (Ticket ticket : matcher.match(commit.getRevCommit().getFullMessage())) {
+                this.commitsWithIssues.add(commit);
+                ticket.addCommit(commit);
+                commit.setTicket(ticket);
             }
         }
         this.tickets.removeIf(ticket -> ticket.getCommitList().isEmpty());
+        infoLog("tickets=" + this.tickets.size() + " new or changed since last run=" +
+                this.incrementalState.recordTickets(this.tickets));
     }
 
     public void closeRepo() {
@@ -192,34 +180,31 @@ public class GitInjection {
     }
 
     /**
-     * Returning the ClassName and Body
-     *
-     * @param revCommit the commit in GitHub repo
-     * @return The class name touched in that commit and class Body
+     * Save the fingerprints of this run: to be called once the whole pipeline completed
      */
-    public static @NotNull Map<String, String> getAllClassesNameAndContent(@NotNull RevCommit revCommit,
-                                                                           Repository repository) throws IOException {
-        Map<String, String> allClasses = new HashMap<>();
-        RevTree tree = revCommit.getTree();
-        TreeWalk treeWalk = new TreeWalk(repository);
-        treeWalk.addTree(tree);
-        treeWalk.setRecursive(true);
-        while (treeWalk.next()) {
-            if (treeWalk.getPathString().contains(JAVA_EXTENTION) && !treeWalk.getPathString().contains("/test/")) {
-                allClasses.put(treeWalk.getPathString(), new String(repository.open(treeWalk.getObjectId(0))
-                        .getBytes(), StandardCharsets.UTF_8));
-            }
+    public void saveIncrementalState() {
+        this.incrementalState.save();
+    }
+
+    /**
+     * Flush and close the persistent analysis cache
+     */
+    public void closeAnalysisStore() {
+        if (this.analysisStore == null) {
+            return;
+        }
+        try {
+            this.analysisStore.close();
+        } catch (IOException e) {
+            errorLog("closing analysis store: " + e.getMessage());
         }
-        treeWalk.close();
-        return allClasses;
     }
 
     /**
-     * Preparing the java Classes linking commit and the Release
-     *
-     * @see JavaClass
+     * Load the classes of the release snapshots and diff the commits: it needs the commits only, so it can
+     * run while the tickets are pulled and linked
      */
-    public void preprocessJavaClasses() throws IOException {
+    public void loadReleaseSnapshots() throws IOException {
         this.javaClasses = new ArrayList<>();
         List<Commit> latestCommits = new ArrayList<>();
 
@@ -238,21 +223,30 @@ public class GitInjection {
         latestCommits.sort(Comparator.comparing(commit -> Date.from(
                 commit.getRevCommit().getCommitterIdent().getWhenAsInstant())));
 
-        for (Commit commit : latestCommits) {
-            Map<String, String> nameAndClassContent = getAllClassesNameAndContent(commit.getRevCommit(),
-                    this.repository);
-            nameAndClassContent.forEach(
-                    (name, content) -> {
-                        if (!name.contains(TEST)) {
-                            javaClasses.add(new JavaClass(name, content,
-                                    commit.getRelease(), true));
-                        }
-                    }
-            );
-            this.javaClasses.removeIf(javaClass -> !javaClass.isHasMap());
-
+        long start = System.currentTimeMillis();
+        this.javaClasses.addAll(new ReleaseSnapshotLoader(this.repository, this.parseCache).load(latestCommits));
+        long end = System.currentTimeMillis();
+        infoLog("loaded release snapshots classes=" + this.javaClasses.size() + " took=" + ((end - start) / 1e3)
+                + "s");
+        this.indexJavaClasses();
+        try {
+            diffIndex().build(this.commits.stream().map(Commit::getRevCommit).toList());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
         }
+    }
 
+    /**
+     * Preparing the java Classes linking commit and the Release
+     *
+     * @see JavaClass
+     */
+    public void preprocessJavaClasses() throws IOException {
+        if (this.javaClasses == null) {
+            this.loadReleaseSnapshots();
+        }
+        long start;
+        long end;
         this.fillClassesInfo();
         infoLog("fillClassInfo");
         this.checkUpdateInClassCommitted();
@@ -263,30 +257,59 @@ public class GitInjection {
         logBugPercentage();
         // now cutting the 66% of release to do the analysis
         this.cutJavaClasses();
-        long start = System.currentTimeMillis();
+        start = System.currentTimeMillis();
         infoLog("start check-Age");
         this.checkMethodAge();
-        long end = System.currentTimeMillis();
+        end = System.currentTimeMillis();
         infoLog("done check Age took=" + ((end - start) / 1e3)  + "s");
+        Map<Release, List<JavaClass>> toAnalyze = this.restoreUnchangedReleases();
+        infoLog("releases to analyze=" + toAnalyze.size() + "/" + this.javaClassPerRelease.size());
         infoLog("start check usage");
         start = System.currentTimeMillis();
-        this.checkMethodUsage();
+        this.checkMethodUsage(toAnalyze);
         end = System.currentTimeMillis();
         infoLog("done check Usage took=" + ((end - start) / 1e3)  + "s");
         infoLog("start updateMethodPerClassCommits");
         start = System.currentTimeMillis();
-        this.updateMethodPerClassCommits();
+        this.updateMethodPerClassCommits(toAnalyze);
         end = System.currentTimeMillis();
         infoLog("done updateMethodPerClassCommits took=" + ((end - start) / 1e3)  + "s");
         infoLog("start check code smells");
         start = System.currentTimeMillis();
-        this.setupCodeSmellPMD();
+        this.checkCodeSmells(toAnalyze);
         end = System.currentTimeMillis();
-        CodeSmellParser.extractCodeSmell(this.javaClassPerRelease, this.project);
         infoLog("done check code smells took=" + ((end - start) / 1e3)  + "s");
+        this.saveReleaseSnapshots(toAnalyze);
         this.foundMostCodeSmells();
+        infoLog("parse cache " + this.parseCache.getStats());
 
+    }
+
+    /**
+     * Restore the history metrics of the releases not changed since the last run
+     *
+     * @return the releases to analyze
+     */
+    private @NotNull Map<Release, List<JavaClass>> restoreUnchangedReleases() {
+        Map<Release, List<JavaClass>> toAnalyze = new LinkedHashMap<>();
+        this.javaClassPerRelease.forEach((release, classes) -> {
+            if (!this.incrementalState.restoreSnapshot(release, previousRelease(release), classes)) {
+                toAnalyze.put(release, classes);
+            }
+        });
+        return toAnalyze;
+    }
 
+    private void saveReleaseSnapshots(@NotNull Map<Release, List<JavaClass>> analyzed) {
+        if (!this.incrementalState.isEnabled()) {
+            return;
+        }
+        analyzed.forEach((release, classes) ->
+                this.incrementalState.saveSnapshot(release, previousRelease(release), classes));
+    }
+
+    private Release previousRelease(@NotNull Release release) {
+        return this.releases.stream().filter(r -> r.getId() == release.getId() - 1).findFirst().orElse(null);
     }
 
     private void foundMostCodeSmells() {
@@ -379,6 +402,8 @@ public class GitInjection {
         javaClasses.removeIf(
                 javaClass -> javaClass.getRelease().getId() > limit
         );
+        classIndex.keySet().removeIf(id -> id > limit);
+        classOrdinals = null;
         infoLog("after cut releases releases size=" + this.javaClassPerRelease.size() +
                 "java cut-classes size=" + this.javaClasses.size());
         logBugPercentage();
@@ -461,259 +486,43 @@ public class GitInjection {
     }
 
     /**
-     * Fain in Fan out calculation Method
+     * Fain in Fan out calculation Method: one call graph index per release
+     *
+     * @see CallGraphIndex
      */
-    private void checkMethodUsage() {
-        javaClassPerRelease.forEach((release, classes) -> {
-
-            Map<String, Set<String>> methodCalls = new HashMap<>();
-
-            classes.forEach(jc -> {
-                String className = jc.getClassName();
-                CompilationUnit cu = StaticJavaParser.parse(jc.getClassBody());
-
-                cu.findAll(MethodDeclaration.class).forEach(methodDecl -> {
-                    String callerSig = className + "." + JavaParserUtil.getSignature(methodDecl);
-                    Set<String> callee = new HashSet<>();
-
-                    methodDecl.findAll(MethodCallExpr.class)
-                            .stream()
-                            .map(MethodCallExpr::getNameAsString)
-                            .forEach(callee::add);
-
-                    methodCalls.put(callerSig, callee);
-                });
-            });
-
-            classes.forEach(jc -> {
-                String className = jc.getClassName();
-                jc.getMethodsMetrics().forEach((methodSig, mm) -> {
-                    String fullMethodSig = className + "." + methodSig;
-                    int fanOut = methodCalls.getOrDefault(fullMethodSig, Collections.emptySet()).size();
-                    mm.setFanOut(fanOut);
-                });
-            });
-
-            classes.forEach(callerJc -> {
-                CompilationUnit cu = StaticJavaParser.parse(callerJc.getClassBody());
-                cu.findAll(MethodDeclaration.class).forEach(methodDecl ->
-                        methodDecl.getBody().ifPresent(block ->
-                                block.findAll(MethodCallExpr.class).forEach(callStmt -> {
-                                    String calleeName = callStmt.getNameAsString();
-                                    int argCount = callStmt.getArguments().size();
-
-                                    classes.forEach(possibleCallee ->
-                                            possibleCallee.getMethodsMetrics().values().stream()
-                                                    .filter(mm -> mm.getSimpleName().equals(calleeName)
-                                                            && mm.getParameterCount() == argCount)
-                                                    .forEach(mm -> mm.setFanIn(mm.getFanIn() + 1)));
-                                })
-                        )
-                );
-            });
-
-        });
+    private void checkMethodUsage(@NotNull Map<Release, List<JavaClass>> toAnalyze) {
+        toAnalyze.forEach((release, classes) -> CallGraphIndex.build(classes).apply());
     }
 
     /**
-     * Use PMD to calculate codeSmells
+     * Use PMD to calculate codeSmells: the violations of a release snapshot are counted on the methods
+     * of the next release, the first commit of the first release is the snapshot of release 1
      */
-    private void setupCodeSmellPMD() {
-        String outputDirPath = PMD_ANALYSIS + File.separator + this.project;
-        File outputDir = new File(outputDirPath);
-
-        // Skip PMD if the output directory exists and contains enough files
-
-        if (outputDir.exists() && outputDir.isDirectory()) {
-            File[] existingFiles = outputDir.listFiles((dir, name) -> name.endsWith(".csv"));
-            if (existingFiles != null && existingFiles.length >= this.javaClassPerRelease.size()) {
-                return;
-            }
-        }
-        this.javaClassPerRelease.keySet()
-                .stream().sorted(Comparator.comparing(Release::getId)).forEach(
-                        release -> {
-
-                            if (release.getId() <= 1) {
-                                infoLog(RELEASE + " " + 0 + " starting");
-                                doPmd(0, release.getCommitList().getFirst().getRevCommit());
-                            }
-
-                            infoLog(RELEASE + " " + release.getId() + " starting");
-
-
-                            doPmd(release.getId(), release.getCommitList().getLast().getRevCommit());
-                        }
-                );
-    }
-
-    private void doPmd(int releaseId, @NotNull RevCommit commit) {
-        String commitId = commit.getName();
-        final String reportPath = PMD_ANALYSIS + File.separator + this.project + File.separator
-                + releaseId + ".csv";
-        if ((new File(reportPath).exists())) {
-            return;
-        }
-        try {
-            String msg = "do pmd for " + this.project + " previous " + RELEASE + " " + releaseId +
-                    " with commit " + commitId + " for next " + RELEASE + " " + (releaseId + 1);
-            SeLogger.getInstance().getLogger().info(msg);
-
-            this.localGithub.checkout().setForced(true).setName(commitId).call();
-
-        } catch (GitAPIException e) {
-            SeLogger.getInstance().getLogger().warning("Initial checkout failed for " + commitId + ": " + e.getMessage());
-            try {
-                // Ripristina lo stato del repo
-                cleanGitState();  // definita sotto
-                this.localGithub.reset().setMode(ResetCommand.ResetType.HARD).call();
-                this.localGithub.clean().setCleanDirectories(true).call();
-
-                // Retry checkout
-                this.localGithub.checkout().setForced(true).setName(commitId).call();
-
-            } catch (GitAPIException | IOException ex) {
-                String msg = commitId + " still has problems after reset: " + ex.getMessage();
-                SeLogger.getInstance().getLogger().severe(msg);
-            }
-        } finally {
-            restoreRepositoryState();
-        }
-        try {
-            Process process = getProcess(releaseId);
-            process.waitFor(5L, TimeUnit.MINUTES);
-            String msg = "done pmd " + this.project + " " + RELEASE + " " + releaseId;
-            SeLogger.getInstance().getLogger().info(msg);
-            process.destroy();
-        } catch (IOException ignored) {
-            // go next
-        } catch (InterruptedException e) {
-            String msg = "Some problem occurred here unexpected interruption " + this.project + " " + RELEASE + " " + releaseId;
-            SeLogger.getInstance().getLogger().info(msg);
-            Thread.currentThread().interrupt();
-        }
-    }
-
-
-    private void cleanGitState() throws IOException {
-        String gitDir = repoPath + File.separator + ".git" + File.separator;
-        String[] mergeFiles = {"MERGE_HEAD", "MERGE_MSG", "MERGE_MODE", "index"};
-        for (String file : mergeFiles) {
-            File f = new File(gitDir + file);
-            if (f.exists()) {
-                Files.delete(f.toPath());
-            }
-        }
-    }
-
-
-    @Contract("_ -> new")
-    private @NotNull Process getProcess(int id) throws IOException {
-        final String pmd = System.getenv(Main.SYS_PMD_HOME) + File.separator + "bin" + File.separator + "pmd";
-        final String reportPath = PMD_ANALYSIS + File.separator + this.project + File.separator + id + ".csv";
-        return new ProcessBuilder(
-                pmd,
-                "check",
-                "-d", this.repoPath,
-                "-R", Objects.requireNonNull(GitInjection.class
-                .getClassLoader()
-                .getResource("pmd/custom.xml")).getPath(),
-                "-f", "csv",
-                "--no-cache",
-                "-r", reportPath
-        ).redirectErrorStream(true).start();
-    }
-
-    private void updateMethodPerClassCommits() {
-        AtomicLong counter = new AtomicLong(0);
-        try {
-            this.javaClassPerRelease.forEach(
-                    (release, jc) -> jc.stream().filter(
-                            javaClass -> {
-                                if (javaClass.getClassCommits() != null) {
-                                    return javaClass.getClassCommits().size() > 1;
-                                }
-                                return false;
-                            }
-                    ).forEach(
-                            javaClass -> javaClass.getClassCommits().forEach(
-                                    commit -> {
-                                        if (!commit.equals(javaClass.getClassCommits().getLast())) {
-                                            moreClassInfo(javaClass, commit.getRevCommit());
-                                            counter.incrementAndGet();
-                                        }
-                                    }
-                            )
-                    )
-            );
-        } catch (NullPointerException ignored) {
-            // skip the class which has no commit
-        } finally {
-            restoreRepositoryState();
-        }
-        infoLog("updateMethodPerClassCommits commits: " + counter.get());
-    }
-
-    private void moreClassInfo(@NotNull JavaClass javaClass, @NotNull RevCommit revCommit) {
-        RevTree tree = revCommit.getTree();
-        TreeWalk treeWalk = new TreeWalk(repository);
-        try {
-            treeWalk.addTree(tree);
-            treeWalk.setRecursive(true);
-            treeWalk.setFilter(PathSuffixFilter.create(JAVA_EXTENTION));
-            while (treeWalk.next()) {
-                if (treeWalk.getPathString().contains(javaClass.getName())) {
-                    CompilationUnit cu = StaticJavaParser.parse(new String(repository
-                            .open(treeWalk.getObjectId(0))
-                            .getBytes(), StandardCharsets.UTF_8));
-                    cu.findAll(MethodDeclaration.class).forEach(
-                            methodDeclaration -> {
-                                String methodName = methodDeclaration.getDeclarationAsString();
-                                if (javaClass.getMethods().get(methodName) != null) {
-                                    methodDeclaration.getBody().ifPresent(
-                                            body -> calcDiff(javaClass, methodDeclaration, methodName, revCommit)
-                                    );
-                                }
-                            }
-                    );
-                }
-
-
-            }
-
-        } catch (IOException | ParseProblemException ipe) {
-            // ignoring this
-            errorLog(ipe.getClass().getSimpleName() + " problem with this javaClass in release: "
-                    + javaClass.getRelease().getId());
-        } catch (NullPointerException e) {
-            // ignoring this step
-            errorLog("java class: " + javaClass.getName() + " nullptr: " +
-                    e.getMessage());
-        }
-        treeWalk.close();
+    private void checkCodeSmells(@NotNull Map<Release, List<JavaClass>> toAnalyze) {
+        Map<Integer, Release> releasesById = new HashMap<>();
+        this.javaClassPerRelease.keySet().forEach(release -> releasesById.put(release.getId(), release));
+        List<CodeSmellEngine.Job> jobs = new ArrayList<>();
+        toAnalyze.entrySet().stream()
+                .sorted(Comparator.comparing(entry -> entry.getKey().getId()))
+                .forEach(entry -> {
+                    Release release = entry.getKey();
+                    if (release.getId() == 1) {
+                        jobs.add(new CodeSmellEngine.Job(0, release.getCommitList().getFirst().getRevCommit(),
+                                entry.getValue()));
+                        return;
+                    }
+                    Release previous = releasesById.get(release.getId() - 1);
+                    if (previous != null) {
+                        jobs.add(new CodeSmellEngine.Job(previous.getId(),
+                                previous.getCommitList().getLast().getRevCommit(), entry.getValue()));
+                    }
+                });
+        new CodeSmellEngine(this.repository, this.project, this.analysisStore).analyze(jobs);
     }
 
-
-    private static void calcDiff(@NotNull JavaClass javaClass, MethodDeclaration methodDeclaration,
-                                 String methodName, @NotNull RevCommit revCommit) {
-        String newBody = JavaParserUtil.getStringBody(methodDeclaration);
-        String oldBody = javaClass.getMethods().get(methodName);
-        if (!newBody.equals(oldBody)) {
-            int added = 0;
-            int removed = 0;
-            List<String> oldLines = Arrays.asList(oldBody.split("\n"));
-            List<String> newLines = Arrays.asList(newBody.split("\n"));
-            for (String line : newLines) {
-                if (!oldLines.contains(line)) added++;
-            }
-            for (String line : oldLines) {
-                if (!newLines.contains(line)) removed++;
-            }
-            javaClass.getMethodsMetrics().get(methodName).incChanges();
-            javaClass.getMethodsMetrics().get(methodName)
-                    .addChurn(added, removed);
-            javaClass.getMethodsMetrics().get(methodName).addAuthor(revCommit.getAuthorIdent().getName());
-        }
+    private void updateMethodPerClassCommits(@NotNull Map<Release, List<JavaClass>> toAnalyze) {
+        long visited = new MethodHistoryTracker(this.repository, this.parseCache).track(toAnalyze);
+        infoLog("updateMethodPerClassCommits commits: " + visited);
     }
 
     private void parseJavaClassPerRelease() {
@@ -729,29 +538,37 @@ public class GitInjection {
      * Adding all commits for a Release to a Class
      */
     private void checkUpdateInClassCommitted() throws IOException {
-        List<JavaClass> tempProjClasses;
         for (Commit commit : this.commits) {
-            Release release = commit.getRelease();
-            tempProjClasses = new ArrayList<>(this.javaClasses);
-            tempProjClasses.removeIf(tempProjClass -> !tempProjClass.getRelease().equals(release));
             List<String> modifiedClassesNames = this.getTouchedClassesNames(commit.getRevCommit());
             for (String modifiedClass : modifiedClassesNames) {
-                for (JavaClass javaClass : tempProjClasses) {
-                    if ((javaClass.getName().equals(modifiedClass)) &&
-                            (!javaClass.getClassCommits().contains(commit))) {
-                        javaClass.addCommitToClass(commit);
-                    }
+                JavaClass javaClass = indexedClass(commit.getRelease().getId(), modifiedClass);
+                if (javaClass != null && !javaClass.getClassCommits().contains(commit)) {
+                    javaClass.addCommitToClass(commit);
                 }
             }
         }
     }
 
+    private void indexJavaClasses() {
+        this.classIndex.clear();
+        for (JavaClass javaClass : this.javaClasses) {
+            this.classIndex.computeIfAbsent(javaClass.getRelease().getId(), id -> new HashMap<>())
+                    .putIfAbsent(javaClass.getName(), javaClass);
+        }
+    }
+
+    private @Nullable JavaClass indexedClass(int releaseId, String name) {
+        Map<String, JavaClass> classesOfRelease = this.classIndex.get(releaseId);
+        return classesOfRelease == null ? null : classesOfRelease.get(name);
+    }
+
     private void fillClassesInfo() throws IOException {
         this.fillClassesInfo(this.tickets, this.javaClasses);
     }
 
     /**
-     * Checking if a class contains or not a bug
+     * Checking if a class contains or not a bug: the tickets are labelled in parallel, every lookup goes
+     * through the release index so each touched file costs one lookup per affected release
      *
      * @param theTickets jira Tickets
      * @param theClasses all javaClasses
@@ -761,23 +578,96 @@ public class GitInjection {
             javaClass.getMetrics().setBug(false);
         }
 
-        for (Ticket ticket : theTickets) {
-            List<Commit> commitsContainingTicket = ticket.getCommitList();
-            Release injectedVersion = ticket.getInjectedVersion();
-            for (Commit commit : commitsContainingTicket) {
-                SimpleDateFormat formatter = new SimpleDateFormat(GitInjection.LOCAL_DATE_FORMAT);
-                RevCommit revCommit = commit.getRevCommit();
-                LocalDate commitDate = LocalDate.parse(formatter.format(
-                        Date.from(revCommit.getCommitterIdent().getWhenAsInstant())));
-                if (!commitDate.isAfter(ticket.getResolutionDate())
-                        && !commitDate.isBefore(ticket.getCreationDate())) {
-                    List<String> modifiedClassesNames = getTouchedClassesNames(revCommit);
-                    Release releaseOfCommit = commit.getRelease();
-                    modifiedClassesForCommit.putIfAbsent(revCommit, modifiedClassesNames);
-                    for (String modifiedClass : modifiedClassesNames) {
-                        checkForAnyBug(modifiedClass, injectedVersion, releaseOfCommit);
-                    }
+        try {
+            Scheduler.forEach(theTickets, ticket -> {
+                try {
+                    labelTicket(ticket, GitInjection::markBuggy);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
 
+    /**
+     * Compute the class labels of a set of tickets without touching the classes, so that several
+     * walk-forward steps can be labelled at the same time
+     *
+     * @param theTickets jira Tickets
+     * @return bit {@link #classOrdinal(JavaClass)} set for each buggy class
+     */
+    public @NotNull BitSet bugLabels(@NotNull List<Ticket> theTickets) throws IOException {
+        Map<JavaClass, Integer> ordinals = classOrdinals();
+        try {
+            return Scheduler.collect(theTickets, BitSet::new, (labels, ticket) -> {
+                try {
+                    labelTicket(ticket, (buggyClass, fixedClass) -> {
+                        Integer ordinal = ordinals.get(buggyClass);
+                        if (ordinal != null) {
+                            labels.set(ordinal);
+                        }
+                    });
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, BitSet::or);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * @param javaClass a class of {@link #getJavaClasses()}
+     * @return the bit of the class in {@link #bugLabels(List)}, -1 for an unknown class
+     */
+    public int classOrdinal(JavaClass javaClass) {
+        return classOrdinals().getOrDefault(javaClass, -1);
+    }
+
+    private synchronized @NotNull Map<JavaClass, Integer> classOrdinals() {
+        if (this.classOrdinals == null) {
+            Map<JavaClass, Integer> ordinals = new IdentityHashMap<>(this.javaClasses.size());
+            for (int i = 0; i < this.javaClasses.size(); i++) {
+                ordinals.put(this.javaClasses.get(i), i);
+            }
+            this.classOrdinals = ordinals;
+        }
+        return this.classOrdinals;
+    }
+
+    /**
+     * Receives each class of a release in [IV, FV) touched by a fix, with its version in FV (if any)
+     */
+    @FunctionalInterface
+    private interface BugMarker {
+        void mark(@NotNull JavaClass buggyClass, @Nullable JavaClass fixedClass);
+    }
+
+    private static void markBuggy(@NotNull JavaClass javaClass, @Nullable JavaClass fixedClass) {
+        // labels only go from false to true, concurrent tickets can race on the same class safely
+        synchronized (javaClass) {
+            javaClass.getMetrics().setBug(true);
+            if (fixedClass != null) {
+                Map<String, String> methodMap = fixedClass.getMethods();
+                javaClass.getMethods().entrySet().forEach(entry -> checkMethodDiff(javaClass, entry, methodMap));
+            }
+        }
+    }
+
+    private void labelTicket(@NotNull Ticket ticket, @NotNull BugMarker marker) throws IOException {
+        Release injectedVersion = ticket.getInjectedVersion();
+        for (Commit commit : ticket.getCommitList()) {
+            RevCommit revCommit = commit.getRevCommit();
+            LocalDate commitDate = CommitIngestion.commitDate(revCommit);
+            if (!commitDate.isAfter(ticket.getResolutionDate())
+                    && !commitDate.isBefore(ticket.getCreationDate())) {
+                List<String> modifiedClassesNames = getTouchedClassesNames(revCommit);
+                Release releaseOfCommit = commit.getRelease();
+                modifiedClassesForCommit.putIfAbsent(revCommit, modifiedClassesNames);
+                for (String modifiedClass : modifiedClassesNames) {
+                    checkForAnyBug(modifiedClass, injectedVersion, releaseOfCommit, marker);
                 }
             }
         }
@@ -789,27 +679,18 @@ public class GitInjection {
      * @param modifiedClass   all classes modified in that Release
      * @param injectedVersion the injected version of the bug
      * @param fixedVersion    the fixed version of the bug
+     * @param marker          what to do with each buggy class
      */
 
-    private void checkForAnyBug(String modifiedClass, Release injectedVersion, Release fixedVersion) {
+    private void checkForAnyBug(String modifiedClass, Release injectedVersion, Release fixedVersion,
+                                BugMarker marker) {
         // by marking the class as a buggy, this can be removed
 
-        List<JavaClass> fixedClasses = this.javaClasses.stream().filter(javaClass -> javaClass.getRelease().getId()
-                        == fixedVersion.getId()).toList();
-
-        for (JavaClass javaClass : this.javaClasses) {
-            if (javaClass.getName().equals(modifiedClass)
-                    && javaClass.getRelease().getId() < fixedVersion.getId()
-                    && javaClass.getRelease().getId() >= injectedVersion.getId()) {
-                javaClass.getMetrics().setBug(true);
-                javaClass.getMethods().entrySet().forEach(entry ->
-                        fixedClasses.stream().filter(jc -> jc.getName().equals(modifiedClass)).findAny().ifPresent(
-                        fixedClass -> {
-                            Map<String, String> methodMap = fixedClass.getMethods();
-                            checkMethodDiff(javaClass, entry, methodMap);
-                        }
-                ));
-
+        JavaClass fixedClass = indexedClass(fixedVersion.getId(), modifiedClass);
+        for (int releaseId = injectedVersion.getId(); releaseId < fixedVersion.getId(); releaseId++) {
+            JavaClass javaClass = indexedClass(releaseId, modifiedClass);
+            if (javaClass != null) {
+                marker.mark(javaClass, fixedClass);
             }
         }
 
@@ -836,27 +717,18 @@ public class GitInjection {
      */
 
     private @NotNull List<String> getTouchedClassesNames(@NotNull RevCommit commit) throws IOException {
-        List<String> touchedClassesNames = new ArrayList<>();
-        try (DiffFormatter diffFormatter = new DiffFormatter(DisabledOutputStream.INSTANCE);
-             ObjectReader reader = repository.newObjectReader()) {
-            CanonicalTreeParser newTreeIter = new CanonicalTreeParser();
-            ObjectId newTree = commit.getTree();
-            newTreeIter.reset(reader, newTree);
-            RevCommit commitParent = commit.getParent(0);
-            CanonicalTreeParser oldTreeIter = new CanonicalTreeParser();
-            ObjectId oldTree = commitParent.getTree();
-            oldTreeIter.reset(reader, oldTree);
-            diffFormatter.setRepository(repository);
-            List<DiffEntry> entries = diffFormatter.scan(oldTreeIter, newTreeIter);
-            for (DiffEntry entry : entries) {
-                if (entry.getNewPath().contains(JAVA_EXTENTION) && !entry.getNewPath().contains("/test/")) {
-                    touchedClassesNames.add(entry.getNewPath());
-                }
-            }
-        } catch (ArrayIndexOutOfBoundsException ignored) {
-            //ignoring when no parent is found
+        try {
+            return diffIndex().touchedPaths(commit);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private synchronized @NotNull CommitDiffIndex diffIndex() {
+        if (this.diffIndex == null) {
+            this.diffIndex = new CommitDiffIndex(this.repository, this.analysisStore);
         }
-        return touchedClassesNames;
+        return this.diffIndex;
     }
 
     public List<Commit> getCommitsWithIssues() {
@@ -867,46 +739,35 @@ public class GitInjection {
         return this.javaClasses;
     }
 
-    public void checkLOCInfo(@NotNull JavaClass javaClass) {
-        for (Commit commit : javaClass.getClassCommits()) {
-            RevCommit revCommit = commit.getRevCommit();
-            try (DiffFormatter diffFormatter = new DiffFormatter(DisabledOutputStream.INSTANCE)) {
-                RevCommit parentComm = revCommit.getParent(0);
-                diffFormatter.setRepository(repository);
-                diffFormatter.setDiffComparator(RawTextComparator.DEFAULT);
-                List<DiffEntry> diffEntries = diffFormatter.scan(parentComm.getTree(), revCommit.getTree());
-                for (DiffEntry diffEntry : diffEntries) {
-                    if (diffEntry.getNewPath().equals(javaClass.getName())) {
-                        javaClass.addLOCAddedByClass(getAddedLines(diffFormatter, diffEntry));
-                        javaClass.addLOCRemovedByClass(getDeletedLines(diffFormatter, diffEntry));
-                    }
-                }
-            } catch (ArrayIndexOutOfBoundsException | IOException ignored) {
-                //ignoring when no parent is found
+    /**
+     * Add the lines added and removed by every commit to the classes it touches: each commit is looked up
+     * once in the diff index and its counts are fanned out to the classes of its release
+     */
+    public void collectLOCInfo() {
+        for (Commit commit : this.commits) {
+            Map<String, int[]> stats;
+            try {
+                stats = diffIndex().get(commit.getRevCommit());
+            } catch (UncheckedIOException e) {
+                errorLog("loc diff " + commit.getRevCommit().getName() + ": " + e.getCause().getMessage());
+                continue;
             }
+            stats.forEach((path, lines) -> {
+                JavaClass javaClass = indexedClass(commit.getRelease().getId(), path);
+                if (javaClass != null) {
+                    javaClass.addLOCAddedByClass(lines[0]);
+                    javaClass.addLOCRemovedByClass(lines[1]);
+                }
+            });
         }
     }
 
-    private int getAddedLines(@NotNull DiffFormatter diffFormatter, DiffEntry entry) throws IOException {
-        int addedLines = 0;
-        for (Edit edit : diffFormatter.toFileHeader(entry).toEditList()) {
-            addedLines += edit.getEndB() - edit.getBeginB();
-        }
-        return addedLines;
-    }
-
-    private int getDeletedLines(@NotNull DiffFormatter diffFormatter, DiffEntry entry) throws IOException {
-        int deletedLines = 0;
-        for (Edit edit : diffFormatter.toFileHeader(entry).toEditList()) {
-            deletedLines += edit.getEndA() - edit.getBeginA();
-        }
-        return deletedLines;
-    }
-
     public Map<String, String> getMapTickets() {
         Map<String, String> mapTickets = new HashMap<>();
-        this.tickets.sort(Comparator.comparing(Ticket::getCreationDate));
-        for (Ticket ticket : this.tickets) {
+        // sort a copy: the dataset stage reads the tickets while the export runs
+        List<Ticket> sorted = new ArrayList<>(this.tickets);
+        sorted.sort(Comparator.comparing(Ticket::getCreationDate));
+        for (Ticket ticket : sorted) {
             List<String> ids = new ArrayList<>();
             for (Release release : ticket.getAffectedVersions()) {
                 ids.add(release.getReleaseName());
@@ -936,10 +797,7 @@ public class GitInjection {
                 inner.put("ticketKey", commit.getTicket().getTicketKey());
             }
             inner.put(RELEASE, release.getReleaseName());
-            inner.put("creationDate",
-                    String.valueOf(LocalDate.parse((new SimpleDateFormat(GitInjection.LOCAL_DATE_FORMAT)
-                            .format(Date.from(revCommit.getCommitterIdent().getWhenAsInstant()))
-                    ))));
+            inner.put("creationDate", String.valueOf(CommitIngestion.commitDate(revCommit)));
             mapCommits.put(revCommit.getName(), inner.toString());
         }
         return mapCommits;
@@ -954,30 +812,5 @@ public class GitInjection {
         return summaryMap;
     }
 
-    private void restoreRepositoryState() {
-        if (lastBranch == null) {
-            errorLog("No branch to restore to");
-            return;
-        }
-        try {
-            // reset e clean
-            localGithub.reset()
-                    .setMode(ResetCommand.ResetType.HARD)
-                    .call();
-            localGithub.clean()
-                    .setCleanDirectories(true)
-                    .call();
-
-            // torna al branch salvato
-            localGithub.checkout()
-                    .setName(lastBranch)
-                    .call();
-
-            infoLog("Repository restored to branch " + lastBranch + " at HEAD");
-        } catch (GitAPIException e) {
-            errorLog("reset the repo: " + e.getMessage());
-        }
-    }
-
 
 }
@@ -0,0 +1,476 @@
+package it.torvergata.ahmed.controller;
+
+import it.torvergata.ahmed.logging.SeLogger;
+import it.torvergata.ahmed.model.Commit;
+import it.torvergata.ahmed.model.JavaClass;
+import it.torvergata.ahmed.model.MethodMetrics;
+import it.torvergata.ahmed.model.Release;
+import it.torvergata.ahmed.model.Ticket;
+import it.torvergata.ahmed.utilities.AnalysisStore;
+import it.torvergata.ahmed.utilities.SysConfig;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Fingerprints of the last completed run of a project, stored in the analysis cache directory:
+ * <ul>
+ *     <li>the head of each branch</li>
+ *     <li>per release: first and last commit and the number of commits</li>
+ *     <li>per ticket: versions and linked commits</li>
+ *     <li>per walk-forward step: the digest of everything its training and testing sets depend on</li>
+ * </ul>
+ * Besides, the history metrics of the methods (churn, changes, authors, fan-in/out, code smells) are
+ * saved per release together with the fingerprint of the release and of the previous one (the source
+ * of the PMD report) and the version of the PMD ruleset and rules. With {@code SYS_INCREMENTAL=true} a release whose fingerprints did not change is
+ * restored instead of analyzed again, and a walk-forward step with the same digest is not written again.
+ * Without it the fingerprints are only kept in memory: the state and the snapshots are neither read nor
+ * written.
+ */
+public class IncrementalState {
+
+    public static final String SYS_INCREMENTAL = "SYS_INCREMENTAL";
+    /**
+     * Bump when the layout of the state or of the datasets changes: everything is then computed again
+     */
+    private static final int FORMAT_VERSION = 2;
+    private static final int SNAPSHOT_MAGIC = 0x534E4150; // "SNAP"
+    private static final String STATE_FILE = "state.json";
+    private static final String SNAPSHOT_DIR = "releases";
+    private static final String VERSION = "version";
+    private static final String BRANCHES = "branches";
+    private static final String RELEASES = "releases";
+    private static final String TICKETS = "tickets";
+    private static final String STEPS = "steps";
+
+    private final Path dir;
+    private final boolean enabled;
+    private final String logName;
+    /**
+     * {@link AnalysisStore#smellsVersion()}, null when the ruleset is unreadable: no snapshot is then used
+     */
+    private final Integer smellsVersion;
+    private final Map<String, String> previousBranches;
+    private final Map<String, String> previousReleases;
+    private final Map<String, String> previousTickets;
+    private final Map<String, String> previousSteps;
+    private final Map<String, String> branches = new TreeMap<>();
+    private final Map<String, String> releases = new TreeMap<>();
+    private final Map<String, String> tickets = new TreeMap<>();
+    private final Map<String, String> steps = new TreeMap<>();
+
+    private IncrementalState(Path dir, boolean enabled, String logName, Integer smellsVersion,
+                             JSONObject previous) {
+        this.dir = dir;
+        this.enabled = enabled;
+        this.logName = logName;
+        this.smellsVersion = smellsVersion;
+        this.previousBranches = toMap(previous, BRANCHES);
+        this.previousReleases = toMap(previous, RELEASES);
+        this.previousTickets = toMap(previous, TICKETS);
+        this.previousSteps = toMap(previous, STEPS);
+    }
+
+    /**
+     * Load the state of the last run, a missing or unreadable state is an empty one (full run)
+     *
+     * @param dir     the cache directory of the project
+     * @param logName prefix used in the log messages
+     * @return the state
+     */
+    public static @NotNull IncrementalState load(@NotNull Path dir, String logName) {
+        boolean enabled = Boolean.parseBoolean(SysConfig.get(SYS_INCREMENTAL));
+        Path file = dir.resolve(STATE_FILE);
+        JSONObject previous = new JSONObject();
+        if (enabled && Files.exists(file)) {
+            try {
+                JSONObject stored = new JSONObject(Files.readString(file));
+                if (stored.optInt(VERSION, -1) == FORMAT_VERSION) {
+                    previous = stored;
+                } else {
+                    warn(logName, "state version mismatch, full run");
+                }
+            } catch (IOException | JSONException e) {
+                warn(logName, "state unreadable, full run: " + e.getMessage());
+            }
+        }
+        Integer smellsVersion = null;
+        try {
+            smellsVersion = AnalysisStore.smellsVersion();
+        } catch (IOException e) {
+            warn(logName, "PMD ruleset unreadable, releases analyzed again: " + e.getMessage());
+        }
+        String info = logName + ": incremental=" + enabled + " previous releases=" +
+                previous.optJSONObject(RELEASES, new JSONObject()).length();
+        SeLogger.getInstance().getLogger().info(info);
+        return new IncrementalState(dir, enabled, logName, smellsVersion, previous);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Record the branch heads and count the commits not reachable from the heads of the last run
+     *
+     * @param repository the repository
+     * @param refs       all the branches
+     * @return the number of new commits
+     */
+    public int recordBranches(@NotNull Repository repository, @NotNull List<Ref> refs) throws IOException {
+        int count = 0;
+        try (RevWalk walk = new RevWalk(repository)) {
+            for (Ref ref : refs) {
+                ObjectId head = ref.getPeeledObjectId() != null ? ref.getPeeledObjectId() : ref.getObjectId();
+                if (head == null) {
+                    continue;
+                }
+                branches.put(ref.getName(), head.getName());
+                walk.markStart(walk.parseCommit(head));
+            }
+            for (String previous : previousBranches.values()) {
+                try {
+                    walk.markUninteresting(walk.parseCommit(ObjectId.fromString(previous)));
+                } catch (MissingObjectException | IllegalArgumentException ignored) {
+                    // branch rewritten or garbage collected: its commits count as new
+                }
+            }
+            while (walk.next() != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Record the fingerprints of the releases
+     *
+     * @param theReleases the releases linked to their commits
+     * @return the releases changed since the last run, all of them when not incremental
+     */
+    public @NotNull Set<Release> recordReleases(@NotNull List<Release> theReleases) {
+        Set<Release> changed = new HashSet<>();
+        for (Release release : theReleases) {
+            String fingerprint = fingerprint(release);
+            releases.put(release.getReleaseName(), fingerprint);
+            if (!enabled || !fingerprint.equals(previousReleases.get(release.getReleaseName()))) {
+                changed.add(release);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Record the fingerprints of the tickets
+     *
+     * @param theTickets the tickets linked to their commits
+     * @return the number of tickets new or changed since the last run
+     */
+    public int recordTickets(@NotNull List<Ticket> theTickets) {
+        int changed = 0;
+        for (Ticket ticket : theTickets) {
+            String fingerprint = fingerprint(ticket);
+            tickets.put(ticket.getTicketKey(), fingerprint);
+            if (!fingerprint.equals(previousTickets.get(ticket.getTicketKey()))) {
+                changed++;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Record the digest of a walk-forward step
+     *
+     * @param step   the last release of the training set
+     * @param digest the digest of the inputs of the step
+     * @return true when incremental and the step had the same digest in the last run
+     */
+    public boolean recordStep(int step, @NotNull String digest) {
+        steps.put(String.valueOf(step), digest);
+        return enabled && digest.equals(previousSteps.get(String.valueOf(step)));
+    }
+
+    /**
+     * Digest of the inputs of a walk-forward step: the run settings that shape the datasets, the releases
+     * up to the testing one, and the tickets that can label a class or link a commit of those releases
+     *
+     * @param step        the last release of the training set
+     * @param theReleases all the releases
+     * @param theTickets  all the tickets
+     * @param settings    the run settings that shape the datasets (cut percentage, dataset layout)
+     * @return hex digest
+     */
+    public static @NotNull String stepDigest(int step, @NotNull List<Release> theReleases,
+                                             @NotNull List<Ticket> theTickets, @NotNull List<String> settings) {
+        final int testing = step + 1;
+        List<String> parts = new ArrayList<>();
+        parts.add(String.valueOf(FORMAT_VERSION));
+        parts.addAll(settings);
+        theReleases.stream().filter(release -> release.getId() <= testing)
+                .forEach(release -> parts.add(fingerprint(release)));
+        theTickets.stream()
+                .filter(ticket -> versionId(ticket.getInjectedVersion()) <= testing || ticket.getCommitList()
+                        .stream().anyMatch(commit -> commit.getRelease().getId() <= testing))
+                .map(IncrementalState::fingerprint)
+                .sorted()
+                .forEach(parts::add);
+        return digest(parts);
+    }
+
+    /**
+     * Persist the state of this run: called only when the run completed, nothing is written when not
+     * incremental
+     */
+    public void save() {
+        if (!enabled) {
+            return;
+        }
+        JSONObject state = new JSONObject();
+        state.put(VERSION, FORMAT_VERSION);
+        state.put(BRANCHES, new JSONObject(branches));
+        state.put(RELEASES, new JSONObject(releases));
+        state.put(TICKETS, new JSONObject(tickets));
+        state.put(STEPS, new JSONObject(steps));
+        try {
+            Files.createDirectories(dir);
+            Path temp = dir.resolve(STATE_FILE + ".tmp");
+            Files.writeString(temp, state.toString(2));
+            Files.move(temp, dir.resolve(STATE_FILE), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            warn(logName, "state not saved: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Restore the history metrics of the methods of a release saved by a previous run
+     *
+     * @param release  the release
+     * @param previous the previous release, null for the first one
+     * @param classes  the classes of the release
+     * @return true when restored, false when the release must be analyzed
+     */
+    public boolean restoreSnapshot(@NotNull Release release, @Nullable Release previous,
+                                   @NotNull List<JavaClass> classes) {
+        Path file = snapshotFile(release);
+        if (!enabled || smellsVersion == null || !Files.exists(file)) {
+            return false;
+        }
+        try {
+            byte[] bytes = Files.readAllBytes(file);
+            if (bytes.length < Long.BYTES) {
+                return false;
+            }
+            CRC32 crc32 = new CRC32();
+            crc32.update(bytes, 0, bytes.length - Long.BYTES);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            in.skipNBytes(bytes.length - (long) Long.BYTES);
+            if (in.readLong() != crc32.getValue()) {
+                return false;
+            }
+            in = new DataInputStream(new ByteArrayInputStream(bytes));
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != FORMAT_VERSION
+                    || in.readInt() != smellsVersion
+                    || !in.readUTF().equals(fingerprint(release))
+                    || !in.readUTF().equals(previous == null ? "" : fingerprint(previous))) {
+                return false;
+            }
+            Map<String, Map<String, MethodMetrics>> byClass = HashMap.newHashMap(classes.size());
+            classes.forEach(javaClass -> byClass.put(javaClass.getName(), javaClass.getMethodsMetrics()));
+            int classCount = in.readInt();
+            if (classCount != classes.size()) {
+                return false;
+            }
+            List<Runnable> updates = new ArrayList<>();
+            for (int i = 0; i < classCount; i++) {
+                Map<String, MethodMetrics> methods = byClass.get(in.readUTF());
+                int methodCount = in.readInt();
+                if (methods == null || methods.size() != methodCount) {
+                    return false;
+                }
+                for (int j = 0; j < methodCount; j++) {
+                    MethodMetrics metrics = methods.get(readString(in));
+                    if (metrics == null) {
+                        return false;
+                    }
+                    updates.add(readMethod(in, metrics));
+                }
+            }
+            updates.forEach(Runnable::run);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Save the history metrics of the methods of an analyzed release, nothing is written when not incremental
+     *
+     * @param release  the release
+     * @param previous the previous release, null for the first one
+     * @param classes  the classes of the release
+     */
+    public void saveSnapshot(@NotNull Release release, @Nullable Release previous,
+                             @NotNull List<JavaClass> classes) {
+        if (!enabled || smellsVersion == null) {
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(smellsVersion);
+            out.writeUTF(fingerprint(release));
+            out.writeUTF(previous == null ? "" : fingerprint(previous));
+            out.writeInt(classes.size());
+            for (JavaClass javaClass : classes) {
+                out.writeUTF(javaClass.getName());
+                out.writeInt(javaClass.getMethodsMetrics().size());
+                for (Map.Entry<String, MethodMetrics> entry : javaClass.getMethodsMetrics().entrySet()) {
+                    writeString(out, entry.getKey());
+                    writeMethod(out, entry.getValue());
+                }
+            }
+            CRC32 crc32 = new CRC32();
+            crc32.update(bytes.toByteArray());
+            out.writeLong(crc32.getValue());
+        } catch (IOException e) {
+            return;
+        }
+        try {
+            Path file = snapshotFile(release);
+            Files.createDirectories(file.getParent());
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.write(temp, bytes.toByteArray());
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            warn(logName, "snapshot not saved " + release.getReleaseName() + ": " + e.getMessage());
+        }
+    }
+
+    private static void writeMethod(@NotNull DataOutputStream out, @NotNull MethodMetrics metrics)
+            throws IOException {
+        out.writeInt(metrics.getAddedChurn());
+        out.writeInt(metrics.getRemovedChurn());
+        out.writeInt(metrics.getMaxAddedChurn());
+        out.writeInt(metrics.getMaxRemovedChurn());
+        out.writeInt(metrics.getNumberOfChanges());
+        out.writeInt(metrics.getAuthors().size());
+        for (String author : metrics.getAuthors()) {
+            writeString(out, author);
+        }
+        out.writeInt(metrics.getFanIn());
+        out.writeInt(metrics.getFanOut());
+        out.writeInt(metrics.getNumberOfCodeSmells());
+    }
+
+    private static @NotNull Runnable readMethod(@NotNull DataInputStream in, @NotNull MethodMetrics metrics)
+            throws IOException {
+        int addedChurn = in.readInt();
+        int removedChurn = in.readInt();
+        int maxAddedChurn = in.readInt();
+        int maxRemovedChurn = in.readInt();
+        int numberOfChanges = in.readInt();
+        int authorCount = in.readInt();
+        List<String> authors = new ArrayList<>(authorCount);
+        for (int i = 0; i < authorCount; i++) {
+            authors.add(readString(in));
+        }
+        int fanIn = in.readInt();
+        int fanOut = in.readInt();
+        int codeSmells = in.readInt();
+        return () -> {
+            metrics.restoreHistory(addedChurn, removedChurn, maxAddedChurn, maxRemovedChurn, numberOfChanges,
+                    authors);
+            metrics.setFanIn(fanIn);
+            metrics.setFanOut(fanOut);
+            metrics.setNumberOfCodeSmells(codeSmells);
+        };
+    }
+
+    private @NotNull Path snapshotFile(@NotNull Release release) {
+        String name = release.getReleaseName().replaceAll("[^A-Za-z0-9._-]", "_");
+        return dir.resolve(SNAPSHOT_DIR).resolve(name + ".bin");
+    }
+
+    private static @NotNull String fingerprint(@NotNull Release release) {
+        List<Commit> commits = release.getCommitList();
+        return release.getId() + ":" + release.getReleaseName() + ":" +
+                (commits.isEmpty() ? "" : commits.getFirst().getRevCommit().getName()) + ":" +
+                (commits.isEmpty() ? "" : commits.getLast().getRevCommit().getName()) + ":" + commits.size();
+    }
+
+    private static @NotNull String fingerprint(@NotNull Ticket ticket) {
+        StringBuilder builder = new StringBuilder(ticket.getTicketKey())
+                .append(':').append(versionId(ticket.getInjectedVersion()))
+                .append(':').append(versionId(ticket.getOpeningVersion()))
+                .append(':').append(versionId(ticket.getFixedVersion()))
+                .append(':').append(ticket.getCreationDate())
+                .append(':').append(ticket.getResolutionDate());
+        ticket.getAffectedVersions().forEach(release -> builder.append(':').append(versionId(release)));
+        List<String> commitNames = new ArrayList<>();
+        ticket.getCommitList().forEach(commit -> commitNames.add(commit.getRevCommit().getName()));
+        builder.append(':').append(digest(commitNames));
+        return builder.toString();
+    }
+
+    private static int versionId(@Nullable Release release) {
+        return release == null ? -1 : release.getId();
+    }
+
+    private static @NotNull String digest(@NotNull List<String> parts) {
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            for (String part : parts) {
+                sha.update(part.getBytes(StandardCharsets.UTF_8));
+                sha.update((byte) '\n');
+            }
+            return HexFormat.of().formatHex(sha.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static @NotNull Map<String, String> toMap(@NotNull JSONObject state, String key) {
+        Map<String, String> map = new HashMap<>();
+        JSONObject inner = state.optJSONObject(key);
+        if (inner != null) {
+            inner.keySet().forEach(name -> map.put(name, inner.getString(name)));
+        }
+        return map;
+    }
+
+    /**
+     * Length prefixed UTF-8 string: author names and signatures can exceed the writeUTF limit
+     */
+    private static void writeString(@NotNull DataOutputStream out, @NotNull String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static @NotNull String readString(@NotNull DataInputStream in) throws IOException {
+        return new String(in.readNBytes(in.readInt()), StandardCharsets.UTF_8);
+    }
+
+    private static void warn(String logName, String msg) {
+        String warning = logName + ": " + msg;
+        SeLogger.getInstance().getLogger().warning(warning);
+    }
+}
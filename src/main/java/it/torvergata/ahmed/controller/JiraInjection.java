@@ -4,8 +4,8 @@ package it.torvergata.ahmed.controller;
 import it.torvergata.ahmed.logging.SeLogger;
 import it.torvergata.ahmed.model.Release;
 import it.torvergata.ahmed.model.Ticket;
+import it.torvergata.ahmed.utilities.JiraClient;
 import it.torvergata.ahmed.utilities.Sink;
-import it.torvergata.ahmed.utilities.WebJsonReader;
 import lombok.Getter;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -14,14 +14,15 @@ import org.json.JSONObject;
 
 
 import java.io.IOException;
-import java.net.URISyntaxException;
 import java.time.LocalDate;
 import java.util.*;
 
 
 public class JiraInjection {
     private static final String  RELEASE_DATE = "releaseDate";
+    private static final String ISSUE_FIELDS = "key,versions,created,resolutiondate";
     private final String projName;
+    private final JiraClient jiraClient;
     @Getter
     private List<Release> releases = null;
     private List<Release> affectedReleases = null;
@@ -29,16 +30,28 @@ public class JiraInjection {
     private List<Ticket> ticketsWithIssues = null;
     @Getter
     private List<Ticket> fixedTickets = null;
+    /**
+     * the search result pages, in order
+     */
+    private List<JSONObject> issuePages = null;
 
     public JiraInjection(String projectName) {
+        this(projectName, new JiraClient());
+    }
+
+    /**
+     * @param projectName the JIRA project
+     * @param jiraClient  the client the project is downloaded with
+     */
+    public JiraInjection(String projectName, JiraClient jiraClient) {
         this.projName = projectName;
+        this.jiraClient = jiraClient;
     }
 
-    public void injectReleases() throws IOException, URISyntaxException {
+    public void injectReleases() throws IOException {
         this.releases = new ArrayList<>();
         int i = 0;
-        String url = "https://issues.apache.org/jira/rest/api/latest/project/" + this.projName;
-        JSONObject object = WebJsonReader.readJsonFromUrl(url);
+        JSONObject object = jiraClient.project(this.projName);
         JSONArray versions = object.getJSONArray("versions");
         for (; i < versions.length(); i++) {
             String releaseName;
@@ -59,7 +72,7 @@ public class JiraInjection {
 
     }
 
-    public void injectTickets() throws IOException, URISyntaxException {
+    public void injectTickets() throws IOException {
         this.pullIssues();
         this.filterFixedApplyingProportion();
     }
@@ -74,32 +87,35 @@ public class JiraInjection {
         this.fixedTickets.sort(Comparator.comparing(Ticket::getResolutionDate));
     }
 
+    /**
+     * Download the pages of the fixed bugs from JIRA: only network, it needs no release so it can run
+     * while the releases are linked to the commits. The pages after the first one are downloaded
+     * concurrently.
+     */
+    public void fetchIssues() throws IOException {
+        String jql = "project=\"" + this.projName + "\" AND \"issueType\"=\"Bug\" AND " +
+                "(\"status\"=\"Closed\" OR \"status\"=\"Resolved\") AND \"resolution\"=\"Fixed\"";
+        this.issuePages = jiraClient.search(jql, ISSUE_FIELDS);
+    }
+
     /**
      * This method is used to load tickets from JIRA
      */
 
-    public void pullIssues() throws IOException, URISyntaxException {
-        int j;
-        int i = 0;
-        int total;
+    public void pullIssues() throws IOException {
+        if (this.issuePages == null) {
+            this.fetchIssues();
+        }
         this.ticketsWithIssues = new ArrayList<>();
         int tickets = 0;
         int ticketWithIssue = 0;
-        do {
-            j = i + 1000;
-            String url = "https://issues.apache.org/jira/rest/api/2/search?jql=project=%22"
-                    + this.projName + "%22AND%22issueType%22=%22Bug%22AND" +
-                    "(%22status%22=%22Closed%22OR%22status%22=%22Resolved%22)" +
-                    "AND%22resolution%22=%22Fixed%22&fields=key,versions,created,resolutiondate&startAt="
-                    + i + "&maxResults=" + j;
-            JSONObject json = WebJsonReader.readJsonFromUrl(url);
+        for (JSONObject json : this.issuePages) {
             JSONArray issues = json.getJSONArray("issues");
-            total = json.getInt("total");
-            for (; i < total && i < j; i++) {
+            for (int i = 0; i < issues.length(); i++) {
                 //Iterate through each bug
                 tickets++;
-                String key = issues.getJSONObject(i%1000).get("key").toString();
-                JSONObject fields = issues.getJSONObject(i%1000).getJSONObject("fields");
+                String key = issues.getJSONObject(i).get("key").toString();
+                JSONObject fields = issues.getJSONObject(i).getJSONObject("fields");
                 String creationDateString = fields.get("created").toString();
                 String resolutionDateString = fields.get("resolutiondate").toString();
                 LocalDate creationDate = LocalDate.parse(creationDateString.substring(0,10));
@@ -122,7 +138,7 @@ public class JiraInjection {
                 }
                 ticketWithIssue++;
             }
-        } while (i < total);
+        }
         this.ticketsWithIssues.sort(Comparator.comparing(Ticket::getResolutionDate));
         String msg = String.format("project=%s, ticket=%d, ticketWithAffectedVersion=%d", projName,
                 tickets, ticketWithIssue);
@@ -232,10 +248,12 @@ public class JiraInjection {
 
     public Map<String, String> getMapReleases() {
         Map<String, String> retMap = new HashMap<>();
-        this.releases.sort(Comparator.comparing(Release::getReleaseDate));
+        // sort a copy: the dataset stage reads the releases while the export runs
+        List<Release> sorted = new ArrayList<>(this.releases);
+        sorted.sort(Comparator.comparing(Release::getReleaseDate));
         final String name = "name";
         final String commits = "commits";
-        for (Release release : this.releases) {
+        for (Release release : sorted) {
             Map<String, String> inner = new LinkedHashMap<>();
             inner.put(name, release.getReleaseName());
             inner.put(RELEASE_DATE, release.getReleaseDate().toString());
@@ -0,0 +1,130 @@
+package it.torvergata.ahmed.controller;
+
+import it.torvergata.ahmed.logging.SeLogger;
+import it.torvergata.ahmed.model.*;
+import it.torvergata.ahmed.utilities.LineSequence;
+import it.torvergata.ahmed.utilities.ParseCache;
+import it.torvergata.ahmed.utilities.Scheduler;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Method history of the release classes: the version of the file at every commit of a class (but the
+ * last one) is compared method by method with the release snapshot, counting changes, churn and authors.
+ * <ul>
+ *     <li>the file is read with {@link TreeWalk#forPath}, a walk filtered on its exact path</li>
+ *     <li>a commit whose blob is the snapshot blob cannot change any method and is skipped</li>
+ *     <li>the churn of the methods is computed once per distinct blob of a class</li>
+ * </ul>
+ * The classes of all the releases run in parallel, each one walking its commits forward.
+ */
+public class MethodHistoryTracker {
+
+    private final Repository repository;
+    private final ParseCache parseCache;
+
+    /**
+     * The churn of one method of a historical blob against the snapshot
+     */
+    private record Change(String signature, int added, int removed) {
+    }
+
+    public MethodHistoryTracker(Repository repository, ParseCache parseCache) {
+        this.repository = repository;
+        this.parseCache = parseCache;
+    }
+
+    /**
+     * @param classesPerRelease the classes to update per release
+     * @return the number of commits visited
+     */
+    public long track(@NotNull Map<Release, List<JavaClass>> classesPerRelease) {
+        AtomicLong counter = new AtomicLong(0);
+        List<JavaClass> toTrack = classesPerRelease.values().stream().flatMap(List::stream)
+                .filter(javaClass -> javaClass.getClassCommits() != null && javaClass.getClassCommits().size() > 1)
+                .toList();
+        Scheduler.forEach(toTrack, javaClass -> {
+            try (ObjectReader reader = repository.newObjectReader()) {
+                counter.addAndGet(trackClass(reader, javaClass));
+            }
+        });
+        return counter.get();
+    }
+
+    private long trackClass(@NotNull ObjectReader reader, @NotNull JavaClass javaClass) {
+        Map<ObjectId, List<Change>> changesPerBlob = new HashMap<>();
+        List<Commit> classCommits = javaClass.getClassCommits();
+        Commit last = classCommits.getLast();
+        long visited = 0;
+        for (Commit commit : classCommits) {
+            if (commit.equals(last)) {
+                continue;
+            }
+            visited++;
+            RevCommit revCommit = commit.getRevCommit();
+            try {
+                ObjectId blobId;
+                try (TreeWalk treeWalk = TreeWalk.forPath(reader, javaClass.getName(), revCommit.getTree())) {
+                    if (treeWalk == null) {
+                        continue;
+                    }
+                    blobId = treeWalk.getObjectId(0).copy();
+                }
+                if (blobId.equals(javaClass.getBlobId())) {
+                    continue;
+                }
+                List<Change> changes = changesPerBlob.get(blobId);
+                if (changes == null) {
+                    changes = methodChanges(reader, javaClass, blobId);
+                    changesPerBlob.put(blobId, changes);
+                }
+                String author = revCommit.getAuthorIdent().getName();
+                for (Change change : changes) {
+                    MethodMetrics methodMetrics = javaClass.getMethodsMetrics().get(change.signature());
+                    if (methodMetrics != null) {
+                        methodMetrics.incChanges();
+                        methodMetrics.addChurn(change.added(), change.removed());
+                        methodMetrics.addAuthor(author);
+                    }
+                }
+            } catch (IOException e) {
+                String msg = e.getClass().getSimpleName() + " problem with this javaClass " + javaClass.getName() +
+                        " in release: " + javaClass.getRelease().getId();
+                SeLogger.getInstance().getLogger().severe(msg);
+            }
+        }
+        return visited;
+    }
+
+    private @NotNull List<Change> methodChanges(@NotNull ObjectReader reader, @NotNull JavaClass javaClass,
+                                                @NotNull ObjectId blobId) throws IOException {
+        ParsedSource parsed = parseCache.get(blobId, () -> new String(reader.open(blobId).getBytes(),
+                StandardCharsets.UTF_8));
+        if (!parsed.isParsed()) {
+            String msg = "ParseProblemException problem with this javaClass " + javaClass.getName() +
+                    " in release: " + javaClass.getRelease().getId();
+            SeLogger.getInstance().getLogger().severe(msg);
+            return Collections.emptyList();
+        }
+        List<Change> changes = new ArrayList<>();
+        for (ParsedMethod newMethod : parsed.getMethods()) {
+            ParsedMethod oldMethod = javaClass.getParsedMethod(newMethod.getSignature());
+            if (oldMethod == null || !newMethod.isHasBody() || oldMethod == newMethod
+                    || newMethod.getBody().equals(oldMethod.getBody())) {
+                continue;
+            }
+            int[] churn = LineSequence.churn(oldMethod.getLines(), newMethod.getLines());
+            changes.add(new Change(newMethod.getSignature(), churn[0], churn[1]));
+        }
+        return changes;
+    }
+}
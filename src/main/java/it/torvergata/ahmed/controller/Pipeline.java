@@ -2,13 +2,18 @@ package it.torvergata.ahmed.controller;
 
 import it.torvergata.ahmed.logging.SeLogger;
 import it.torvergata.ahmed.model.Release;
+import it.torvergata.ahmed.utilities.DatasetStore;
+import it.torvergata.ahmed.utilities.Scheduler;
 import it.torvergata.ahmed.utilities.Sink;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 import org.json.JSONObject;
 
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
 import java.util.logging.Logger;
 
 public class Pipeline implements Runnable{
@@ -27,6 +32,13 @@ public class Pipeline implements Runnable{
         this.latch = countDownLatch;
     }
 
+    /**
+     * The phases run as a DAG of stages: the JIRA search is downloaded while the repository is opened
+     * and its commits linked to the releases, the release snapshots are parsed while the tickets are
+     * linked to the commits, the other stages wait for what they read. The stages run on virtual threads:
+     * the JIRA and repository stages take an I/O permit of the {@link Scheduler}, the parallel steps of the
+     * others take its CPU permits.
+     */
     private void injectAndProcess() {
 
 
@@ -36,114 +48,78 @@ public class Pipeline implements Runnable{
         long overallStart = System.nanoTime();
 
         final String seconds = " seconds";
+        ExecutorService stageExecutor = Scheduler.newExecutor("stage-" + this.targetName);
+        PipelineStages stages = new PipelineStages(stageExecutor, msg -> logger.info(getPipeMsg(msg)));
         try {
-            long start;
-            long end;
-
-            // Start Injection Phase
-            start = System.nanoTime();
-            info = getPipeMsg("starting injection phase");
-            logger.info(info);
-
             JiraInjection jiraInjection = new JiraInjection(this.targetName);
-            jiraInjection.injectReleases();
-            end = System.nanoTime();
-            info = getPipeMsg("start releases injection took: " + getTimeInSeconds(start, end) + seconds);
-            logger.info(info);
-
-            start = System.nanoTime();
-            List<Release> releases = jiraInjection.getReleases();
-            end = System.nanoTime();
-            info = getPipeMsg("releases injection complete took: " + getTimeInSeconds(start, end) +
-                    seconds);
-            logger.info(info);
-
-            // Commit Injection
-            start = System.nanoTime();
-            info = getPipeMsg("start commit injection");
-            logger.info(info);
-
-            GitInjection gitInjection = new GitInjection(this.targetName, this.targetUrl, releases);
-            gitInjection.injectCommits();
-            end = System.nanoTime();
-            info = getPipeMsg("commits injection complete took: " + getTimeInSeconds(start, end) +
-                    seconds);
-            logger.info(info);
-
-            start = System.nanoTime();
-            jiraInjection.injectTickets();
-            gitInjection.setTickets(jiraInjection.getFixedTickets());
-            gitInjection.preprocessCommitsWithIssue();
-            end = System.nanoTime();
-            info = getPipeMsg("ticket injection and commit preprocessing took: " +
-                    getTimeInSeconds(start, end) + seconds);
-            logger.info(info);
 
-            // Java Class Injection
-            start = System.nanoTime();
-            info = getPipeMsg("start java class injection");
-            logger.info(info);
-
-            gitInjection.preprocessJavaClasses();
-            end = System.nanoTime();
-            info = getPipeMsg("java class injection complete took: " + getTimeInSeconds(start, end)
-                    + seconds);
-            logger.info(info);
-            gitInjection.closeRepo();
+            // Injection Phase
+            CompletableFuture<List<Release>> releases = stages.stage("releases", () -> Scheduler.io(() -> {
+                jiraInjection.injectReleases();
+                return jiraInjection.getReleases();
+            }));
+            CompletableFuture<Void> issues = stages.run("issues", () -> Scheduler.io(jiraInjection::fetchIssues));
+            CompletableFuture<GitInjection> repository = stages.stage("repository", () -> Scheduler.io(() ->
+                    new GitInjection(this.targetName, this.targetUrl, releases.join())), releases);
+            CompletableFuture<Void> commits = stages.run("commits",
+                    () -> Scheduler.io(() -> repository.join().injectCommits()), repository);
+            CompletableFuture<Void> snapshots = stages.run("snapshots",
+                    () -> repository.join().loadReleaseSnapshots(), commits);
+            CompletableFuture<Void> tickets = stages.run("tickets", () -> {
+                GitInjection gitInjection = repository.join();
+                jiraInjection.injectTickets();
+                gitInjection.setTickets(jiraInjection.getFixedTickets());
+                gitInjection.preprocessCommitsWithIssue();
+            }, commits, issues);
+            CompletableFuture<Void> classes = stages.run("classes", () -> {
+                GitInjection gitInjection = repository.join();
+                gitInjection.preprocessJavaClasses();
+                gitInjection.closeRepo();
+            }, snapshots, tickets);
 
             // Preprocessing Project
-            start = System.nanoTime();
-            info = getPipeMsg("start preprocessing project");
-            logger.info(info);
             // now must start preprocessing also Method Metrics
-            Sink.serializeProjectAsCsv(gitInjection);
-            PreprocessMetrics preprocessMetrics = new PreprocessMetrics(gitInjection);
-            preprocessMetrics.start();
-            storeCurrentData(jiraInjection, gitInjection);
-            end = System.nanoTime();
-            info = getPipeMsg("preprocessing project complete took: " + getTimeInSeconds(start, end) +
-                    seconds);
-            logger.info(info);
-
-            info = getPipeMsg("injection phase complete");
-            logger.info(info);
+            CompletableFuture<PreprocessMetrics> metrics = stages.stage("metrics", () -> {
+                GitInjection gitInjection = repository.join();
+                Sink.serializeProjectAsCsv(gitInjection);
+                PreprocessMetrics preprocessMetrics = new PreprocessMetrics(gitInjection);
+                preprocessMetrics.start();
+                return preprocessMetrics;
+            }, classes);
+            CompletableFuture<Void> export = stages.run("export",
+                    () -> storeCurrentData(jiraInjection, repository.join()), metrics);
 
             // Dataset Generation
-            start = System.nanoTime();
-            preprocessMetrics.generateDataset(targetName);
-            end = System.nanoTime();
-            info = getPipeMsg("dataset generation complete took: " + getTimeInSeconds(start, end) +
-                    seconds);
-            logger.info(info);
+            CompletableFuture<Void> datasets = stages.run("datasets", () -> {
+                metrics.join().generateDataset(targetName);
+                repository.join().closeAnalysisStore();
+            }, metrics);
 
             // Classification Phase
-            start = System.nanoTime();
-            info = getPipeMsg("start processing phase");
-            logger.info(info);
-
-            info = getPipeMsg("starting classification");
-            logger.info(info);
-
-            WekaProcessing wekaProcessing = new WekaProcessing(this.targetName,
-                    jiraInjection.getReleases().size() / 2);
-            wekaProcessing.classify();
-            end = System.nanoTime();
-            info = getPipeMsg("classification complete took: " + getTimeInSeconds(start, end) +
-                    seconds);
-            logger.info(info);
-            // Sinking Results
-            start = System.nanoTime();
-            wekaProcessing.sinkResults();
-            end = System.nanoTime();
-            info = getPipeMsg("sink results complete took: " + getTimeInSeconds(start, end) +
-                    seconds);
-            logger.info(info);
+            CompletableFuture<Void> classification = stages.run("classification", () -> {
+                GitInjection gitInjection = repository.join();
+                PreprocessMetrics preprocessMetrics = metrics.join();
+                if (gitInjection.getIncrementalState().isEnabled() && preprocessMetrics.getRegeneratedSteps() == 0
+                        && Sink.resultsExist(this.targetName)) {
+                    logger.info(getPipeMsg("datasets unchanged since last run, classification skipped"));
+                } else {
+                    this.classifyAndSink(jiraInjection, preprocessMetrics.getDatasets());
+                }
+            }, datasets);
+
+            stages.run("state", () -> repository.join().saveIncrementalState(), classification, export).join();
 
         } catch (Exception e) {
-            String msg = String.format("Error in pipeline %s: [%s] %s", this.targetName, e.getClass().getSimpleName(),
-                    e.getMessage());
+            Throwable cause = PipelineStages.cause(e);
+            String msg = String.format("Error in pipeline %s: [%s] %s", this.targetName,
+                    cause.getClass().getSimpleName(), cause.getMessage());
             logger.severe(msg);
+            // no stage may outlive the pipeline: the running ones are interrupted and awaited below
+            stages.cancel();
+            stageExecutor.shutdownNow();
         } finally {
+            stageExecutor.close();
+            logger.info(getPipeMsg(stages.summary()));
             long overallEnd = System.nanoTime();
             info = getPipeMsg("total processing took: " + getTimeInSeconds(overallStart, overallEnd) +
                     seconds);
@@ -152,6 +128,32 @@ public class Pipeline implements Runnable{
         }
     }
 
+    private void classifyAndSink(@NotNull JiraInjection jiraInjection,
+                                 @NotNull Map<Integer, DatasetStore.Step> datasets) {
+        final String seconds = " seconds";
+        long start = System.nanoTime();
+        String info = getPipeMsg("start processing phase");
+        logger.info(info);
+
+        info = getPipeMsg("starting classification");
+        logger.info(info);
+
+        WekaProcessing wekaProcessing = new WekaProcessing(this.targetName,
+                jiraInjection.getReleases().size() / 2, datasets);
+        wekaProcessing.classify();
+        long end = System.nanoTime();
+        info = getPipeMsg("classification complete took: " + getTimeInSeconds(start, end) +
+                seconds);
+        logger.info(info);
+        // Sinking Results
+        start = System.nanoTime();
+        wekaProcessing.sinkResults();
+        end = System.nanoTime();
+        info = getPipeMsg("sink results complete took: " + getTimeInSeconds(start, end) +
+                seconds);
+        logger.info(info);
+    }
+
     private String getPipeMsg(String msg) {
         return String.format("{\"Thread-%s-%d\": {\"project\": %s, \"message\": \"%s\"}}",
                 threadIdentity,
@@ -181,12 +183,15 @@ public class Pipeline implements Runnable{
     @Override
     public void run() {
         long startTime = System.nanoTime();
-        this.injectAndProcess();
-        long endTime = System.nanoTime();
-        String finalMessage = this.threadIdentity+ SeLogger.ELAPSED_TIME + ((endTime - startTime) / Math.pow(10, 9)) +
-                SeLogger.SECONDS;
-        logger.info(finalMessage);
-        this.latch.countDown();
+        try {
+            this.injectAndProcess();
+            long endTime = System.nanoTime();
+            String finalMessage = this.threadIdentity + SeLogger.ELAPSED_TIME +
+                    ((endTime - startTime) / Math.pow(10, 9)) + SeLogger.SECONDS;
+            logger.info(finalMessage);
+        } finally {
+            this.latch.countDown();
+        }
 
     }
 }
@@ -0,0 +1,166 @@
+package it.torvergata.ahmed.controller;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/**
+ * Small DAG of pipeline stages: a stage starts on the executor as soon as all the stages it depends on
+ * completed, and fails without running as soon as one of them failed, so a failure reaches the end of the
+ * DAG without waiting for the stages still running on other branches. The wall time of every stage is recorded,
+ * the summary reports them with the critical path, the chain of stages each one waiting for the last of
+ * its dependencies to complete.
+ */
+public class PipelineStages {
+
+    /**
+     * Body of a stage
+     */
+    @FunctionalInterface
+    public interface StageBody<T> {
+        T run() throws Exception;
+    }
+
+    /**
+     * Body of a stage without result
+     */
+    @FunctionalInterface
+    public interface StageAction {
+        void run() throws Exception;
+    }
+
+    private record Timing(long start, long end, List<String> dependencies) {
+    }
+
+    private final Executor executor;
+    private final Consumer<String> onCompleted;
+    private final long origin = System.nanoTime();
+    private final Map<CompletableFuture<?>, String> names = new ConcurrentHashMap<>();
+    private final Map<String, Timing> timings = new ConcurrentHashMap<>();
+    private final List<String> order = Collections.synchronizedList(new ArrayList<>());
+
+    /**
+     * @param executor    runs the stages
+     * @param onCompleted receives a message for every completed stage
+     */
+    public PipelineStages(@NotNull Executor executor, @NotNull Consumer<String> onCompleted) {
+        this.executor = executor;
+        this.onCompleted = onCompleted;
+    }
+
+    /**
+     * @param name         the stage name
+     * @param body         the stage, it can join its dependencies: they already completed
+     * @param dependencies the stages to wait for
+     * @return the result of the stage
+     */
+    public <T> @NotNull CompletableFuture<T> stage(@NotNull String name, @NotNull StageBody<T> body,
+                                                   CompletableFuture<?> @NotNull ... dependencies) {
+        List<String> dependencyNames = Arrays.stream(dependencies).map(names::get).toList();
+        order.add(name);
+        CompletableFuture<T> future = allOrFirstFailure(dependencies).thenApplyAsync(ignored -> {
+            long start = System.nanoTime();
+            try {
+                return body.run();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            } finally {
+                long end = System.nanoTime();
+                timings.put(name, new Timing(start, end, dependencyNames));
+                onCompleted.accept(name + " took: " + seconds(end - start) + " seconds");
+            }
+        }, executor);
+        names.put(future, name);
+        return future;
+    }
+
+    /**
+     * @see #stage(String, StageBody, CompletableFuture[])
+     */
+    public @NotNull CompletableFuture<Void> run(@NotNull String name, @NotNull StageAction action,
+                                                CompletableFuture<?> @NotNull ... dependencies) {
+        return stage(name, () -> {
+            action.run();
+            return null;
+        }, dependencies);
+    }
+
+    /**
+     * @return completed when all the dependencies completed, failed as soon as one of them failed
+     */
+    private static @NotNull CompletableFuture<Void> allOrFirstFailure(CompletableFuture<?> @NotNull ... dependencies) {
+        CompletableFuture<Void> all = CompletableFuture.allOf(dependencies);
+        for (CompletableFuture<?> dependency : dependencies) {
+            dependency.whenComplete((ignored, e) -> {
+                if (e != null) {
+                    all.completeExceptionally(e);
+                }
+            });
+        }
+        return all;
+    }
+
+    /**
+     * Cancel the stages not completed yet: the waiting ones fail without running, the running ones go on
+     * until the executor interrupts them
+     */
+    public void cancel() {
+        names.keySet().forEach(future -> future.cancel(true));
+    }
+
+    /**
+     * @param e an exception thrown joining a stage
+     * @return the exception thrown by the stage body
+     */
+    public static @NotNull Throwable cause(@NotNull Throwable e) {
+        Throwable cause = e;
+        while (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+
+    /**
+     * @return the wall time of every stage run, from the creation of the DAG, and the critical path
+     */
+    public @NotNull String summary() {
+        StringBuilder summary = new StringBuilder("stages:");
+        String last = null;
+        for (String name : List.copyOf(order)) {
+            Timing timing = timings.get(name);
+            if (timing == null) {
+                summary.append(' ').append(name).append("=not run");
+                continue;
+            }
+            summary.append(' ').append(name).append('=').append(seconds(timing.end() - timing.start()))
+                    .append("s [").append(seconds(timing.start() - origin)).append("s-")
+                    .append(seconds(timing.end() - origin)).append("s]");
+            if (last == null || timing.end() > timings.get(last).end()) {
+                last = name;
+            }
+        }
+        Deque<String> path = new ArrayDeque<>();
+        long busy = 0;
+        while (last != null) {
+            Timing timing = timings.get(last);
+            path.addFirst(last);
+            busy += timing.end() - timing.start();
+            last = timing.dependencies().stream().filter(timings::containsKey)
+                    .max(Comparator.comparingLong(name -> timings.get(name).end())).orElse(null);
+        }
+        summary.append("; critical path: ").append(String.join(" -> ", path)).append(" (")
+                .append(seconds(busy)).append("s)");
+        return summary.toString();
+    }
+
+    private static @NotNull String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.2f", nanos / 1_000_000_000.0);
+    }
+}
@@ -1,43 +1,22 @@
 package it.torvergata.ahmed.controller;
 
-import it.torvergata.ahmed.logging.SeLogger;
 import it.torvergata.ahmed.model.Ticket;
-import org.jetbrains.annotations.NotNull;
-import org.json.JSONArray;
 import org.json.JSONObject;
 
-import java.io.IOException;
-import java.net.URISyntaxException;
 import java.util.*;
-import java.util.concurrent.locks.ReentrantLock;
-import java.util.logging.Logger;
 
 public class PreProcessProportion {
 
     public static final String NAME_OF_THIS_CLASS = PreProcessProportion.class.getName();
-    private static final Logger logger = Logger.getLogger(NAME_OF_THIS_CLASS);
     private static final String TICKET_SIZE = "ticket_size";
     private static final String AVERAGE_PROPORTION = "average_proportion";
     private static final String MESSAGE_PROPORTION = "no changes";
     private static final String DENOMINATOR = "denominator=1";
     public static final int THRESHOLD_FOR_COLD_START = 5;
-    private static final String COLD_START = "COLD_START_PROPORTIONS";
     private static final String COLD_START_MEDIAN = "COLD_START_MEDIAN";
     private static final String PROJECT_ANALYZED = "PROJECTS";
     private static final String COLD_START_ANALYZE = "(COLD_START_ANALYZE)";
 
-
-    private enum OtherProjects {
-        AVRO,
-        SYNCOPE,
-        STORM,
-        TAJO,
-        ZOOKEEPER
-    }
-
-    private static final ReentrantLock coldStartLock = new ReentrantLock();
-    private static double coldStartComputedProportion = -1.0;
-
     private static double incrementalProportionComputation(List<Ticket> filteredTicketsList,
                                                            Ticket ticket, boolean newEntry, boolean computation,
                                                            JSONObject reportJson) {
@@ -56,7 +35,7 @@ public class PreProcessProportion {
     }
 
 
-    private static double getTotalProportion(List<Ticket> tickets) {
+    static double getTotalProportion(List<Ticket> tickets) {
         double totalProportion = 0.0;
         double denominator;
         for (Ticket correctTicket : tickets) {
@@ -90,83 +69,16 @@ public class PreProcessProportion {
         return false;
     }
 
-    private static void addProportion(OtherProjects projName, JSONArray array,
-                                                   @NotNull List<Double> proportions, double proportion) {
-        JSONObject entry = new JSONObject();
-        entry.put("name", projName.name());
-        entry.put("mean_proportion", proportion);
-        proportions.add(proportion);
-        array.put(entry);
-    }
-
-    private static double coldStartProportionComputation(Ticket ticket, boolean doActualComputation,
-                                                         JSONObject reportJson) {
-        writeUsedOrNot(ticket, doActualComputation, false, reportJson);
-
-        if (coldStartComputedProportion != -1) {
-            JSONObject entry = new JSONObject();
-            entry.put(AVERAGE_PROPORTION, coldStartComputedProportion);
-            entry.put(COLD_START, true);
-            reportJson.put(COLD_START_ANALYZE, entry);
-            return coldStartComputedProportion;
-        }
-
-        coldStartLock.lock();
-
-        // Double-check after acquiring the lock
-        if (coldStartComputedProportion != -1) {
-            JSONObject entry = new JSONObject();
-            entry.put(AVERAGE_PROPORTION, coldStartComputedProportion);
-            entry.put(COLD_START, true);
-            reportJson.put(COLD_START_ANALYZE, entry);
-            coldStartLock.unlock();
-            return coldStartComputedProportion;
-        }
-
-        logger.info("called cold start");
-
-        List<Double> proportionList = new ArrayList<>();
-        JSONArray array = new JSONArray();
+    /**
+     * @return the median of the other projects, their means are added to the report
+     */
+    private static double coldStartProportionComputation(JSONObject reportJson) {
+        ColdStartProportion.Result coldStart = ColdStartProportion.get();
         JSONObject entry = new JSONObject();
-
-        for (OtherProjects projName : OtherProjects.values()) {
-            JiraInjection jiraInjection = new JiraInjection(projName.toString());
-            try {
-                jiraInjection.injectReleases();
-                jiraInjection.pullIssues();
-                jiraInjection.filterFixedNormally();
-            } catch (IOException | URISyntaxException e) {
-                logger.severe(e.getMessage());
-            }
-
-            List<Ticket> filteredTickets = jiraInjection.getTicketsWithAffectedVersion();
-            if (filteredTickets.size() >= THRESHOLD_FOR_COLD_START) {
-                double proportion = incrementalProportionComputation(
-                        filteredTickets, ticket, false, doActualComputation, reportJson
-                );
-                addProportion(projName, array, proportionList, proportion);
-            }
-        }
-
-        Collections.sort(proportionList);
-        double median = 0.0;
-        int size = proportionList.size();
-        if (size > 0) {
-            median = (size % 2 == 0)
-                    ? (proportionList.get((size / 2) - 1) + proportionList.get(size / 2)) / 2
-                    : proportionList.get(size / 2);
-        }
-
-        entry.put(COLD_START_MEDIAN, median);
-        entry.put(PROJECT_ANALYZED, array);
+        entry.put(COLD_START_MEDIAN, coldStart.median());
+        entry.put(PROJECT_ANALYZED, coldStart.toJson());
         reportJson.put(COLD_START_ANALYZE, entry);
-
-        coldStartComputedProportion = median;
-        coldStartLock.unlock();
-        String msg = "cold start: " + coldStartComputedProportion;
-        SeLogger.getInstance().getLogger().info(msg);
-        return median;
-
+        return coldStart.median();
     }
 
 
@@ -178,7 +90,7 @@ public class PreProcessProportion {
             proportion = PreProcessProportion.incrementalProportionComputation(fixedTicketsList, ticket,
                     true, doActualComputation, reportJson);
         } else {
-            proportion = coldStartProportionComputation(ticket, doActualComputation, reportJson);
+            proportion = coldStartProportionComputation(reportJson);
         }
         return proportion;
     }
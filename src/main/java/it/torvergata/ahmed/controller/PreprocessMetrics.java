@@ -2,17 +2,28 @@ package it.torvergata.ahmed.controller;
 
 import it.torvergata.ahmed.logging.SeLogger;
 import it.torvergata.ahmed.model.*;
+import it.torvergata.ahmed.utilities.DatasetStore;
+import it.torvergata.ahmed.utilities.Scheduler;
 import it.torvergata.ahmed.utilities.Sink;
+import it.torvergata.ahmed.utilities.SysConfig;
 import org.eclipse.jgit.revwalk.RevCommit;
+import org.jetbrains.annotations.NotNull;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.NoSuchElementException;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class PreprocessMetrics {
 
+    public static final String SYS_DATASET_EXPORT = "SYS_DATASET_EXPORT";
+
     private final GitInjection gitCtrl;
+    private int regeneratedSteps = 0;
+    /**
+     * walk-forward iteration -> in-memory training and testing sets of the regenerated steps
+     */
+    private final Map<Integer, DatasetStore.Step> datasets = new ConcurrentHashMap<>();
 
     public PreprocessMetrics(GitInjection gitController) {
         this.gitCtrl = gitController;
@@ -27,7 +38,7 @@ public class PreprocessMetrics {
     }
 
     private void computeSize() {
-        this.gitCtrl.getJavaClasses().parallelStream().forEach(javaClass -> {
+        Scheduler.forEach(this.gitCtrl.getJavaClasses(), javaClass -> {
             String[] lines = javaClass.getClassBody().split("\r\n|\r|\n");
             javaClass.getMetrics().setSize(lines.length);
         });
@@ -66,15 +77,14 @@ public class PreprocessMetrics {
     }
 
     private void computeLOCMetrics() {
-        this.gitCtrl.getJavaClasses().parallelStream().forEach(javaClass -> {
+        // one lookup per commit, the counts are fanned out to the classes it touches
+        this.gitCtrl.collectLOCInfo();
+        Scheduler.forEach(this.gitCtrl.getJavaClasses(), javaClass -> {
             LOCMetrics addedLOC = new LOCMetrics();
             LOCMetrics removedLOC = new LOCMetrics();
             LOCMetrics churnLOC = new LOCMetrics();
             LOCMetrics touchedLOC = new LOCMetrics();
 
-            // Check for LOC information for the current Java class
-            this.gitCtrl.checkLOCInfo(javaClass);
-
             List<Integer> locAddedByClass = javaClass.getLOCAddedByClass();
             List<Integer> locRemovedByClass = javaClass.getLOCRemovedByClass();
 
@@ -134,61 +144,148 @@ public class PreprocessMetrics {
     }
 
 
+    /**
+     * Write the training and testing sets of every walk-forward step. The steps to regenerate are found
+     * first, then they run concurrently: each step computes its training labels into its own bitset, so
+     * the classes are never relabelled, and the testing labels are the ones of the full history.
+     * The sets stay in memory for the classification, the csv and arff files are a side output that
+     * {@code SYS_DATASET_EXPORT=false} turns off.
+     *
+     * @param projectName the project
+     */
     public void generateDataset(String projectName) throws IOException {
         List<Release> releases = this.gitCtrl.getReleases();
         List<Ticket> tickets = this.gitCtrl.getTickets();
-        List<JavaClass> classes = this.gitCtrl.getJavaClasses();
         int lastReleaseForDatasetId = releases.get((releases.size() / 2) - 1).getId();
+        Map<Integer, List<JavaClass>> classesPerRelease = new HashMap<>();
+        for (JavaClass javaClass : this.gitCtrl.getJavaClasses()) {
+            classesPerRelease.computeIfAbsent(javaClass.getRelease().getId(), id -> new ArrayList<>()).add(javaClass);
+        }
+        List<Ticket> ticketsByFixedVersion = tickets.stream()
+                .sorted(Comparator.comparingInt(ticket -> ticket.getFixedVersion().getId()))
+                .toList();
 
+        List<String> settings = List.of(String.valueOf(this.gitCtrl.getLimitPercentage()), Sink.datasetLayout());
+        List<Integer> steps = new ArrayList<>();
         for (int i = 1; i <= lastReleaseForDatasetId; i++) {
-            int finalI = i;
-
-            List<Release> firstIReleases = releases.stream()
-                    .filter(release -> release.getId() <= finalI)
-                    .toList();
-            try {
-                int lastReleaseId = firstIReleases.getLast().getId();
-
-
-                List<Ticket> firstITickets = tickets.stream()
-                        .filter(ticket -> ticket.getFixedVersion().getId() <= lastReleaseId)
-                        .toList();
-
-                List<JavaClass> firstIProjectClassesTraining = classes.stream()
-                        .filter(javaClass -> javaClass.getRelease().getId() <= lastReleaseId)
-                        .toList();
-                gitCtrl.fillClassesInfo(firstITickets, firstIProjectClassesTraining);
-                final String filename = projectName + '_' + finalI;
-                Sink.serializeInjectionToCsv(projectName, filename,
-                        firstIReleases, firstIProjectClassesTraining, Sink.DataSetType.TRAINING);
-                Sink.serializeInjectionToArff(projectName, filename,
-                        firstIReleases, firstIProjectClassesTraining, Sink.DataSetType.TRAINING);
-
-
-                List<Release> releasesForTestSet = new ArrayList<>();
-                for (Release release : releases) {
-                    if (release.getId() == (firstIReleases.getLast().getId() + 1)) {
-                        releasesForTestSet.add(release);
-                    }
+            int lastReleaseId = lastReleaseUpTo(releases, i);
+            if (lastReleaseId < 0) {
+                SeLogger.getInstance().getLogger().severe("generateDataset no release up to " + i);
+                continue;
+            }
+            final String filename = projectName + '_' + i;
+            String digest = IncrementalState.stepDigest(lastReleaseId, releases, tickets, settings);
+            if (this.gitCtrl.getIncrementalState().recordStep(lastReleaseId, digest)
+                    && Sink.datasetExists(projectName, filename)) {
+                String info = "generateDataset " + filename + " unchanged since last run";
+                SeLogger.getInstance().getLogger().info(info);
+                continue;
+            }
+            steps.add(i);
+        }
+        this.regeneratedSteps = steps.size();
+        if (steps.isEmpty()) {
+            return;
+        }
+        DatasetStore store = new DatasetStore(this.gitCtrl.getJavaClasses());
+        boolean export = !"false".equalsIgnoreCase(SysConfig.get(SYS_DATASET_EXPORT));
+
+        try {
+            Scheduler.forEach(steps, step -> {
+                try {
+                    buildStep(projectName, step, releases, ticketsByFixedVersion, classesPerRelease, store, export);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
                 }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
 
-                List<JavaClass> firstIProjectClassesTesting = classes.stream()
-                        .filter(javaClass -> javaClass.getRelease().getId() == releasesForTestSet.getLast(
-                        ).getId())
-                        .toList();
-
-                Sink.serializeInjectionToCsv(projectName, filename,
-                        releasesForTestSet, firstIProjectClassesTesting, Sink.DataSetType.TESTING);
-                Sink.serializeInjectionToArff(projectName, filename,
-                        releasesForTestSet, firstIProjectClassesTesting, Sink.DataSetType.TESTING);
+    private static int lastReleaseUpTo(@NotNull List<Release> releases, int releaseId) {
+        int last = -1;
+        for (Release release : releases) {
+            if (release.getId() <= releaseId) {
+                last = release.getId();
+            }
+        }
+        return last;
+    }
 
-            } catch (NoSuchElementException | NullPointerException e) {
-                String severe = "generateDataset " + e.getMessage();
-                SeLogger.getInstance().getLogger().severe(severe);
+    @SuppressWarnings("java:S107")
+    private void buildStep(String projectName, int step, @NotNull List<Release> releases,
+                           @NotNull List<Ticket> ticketsByFixedVersion,
+                           @NotNull Map<Integer, List<JavaClass>> classesPerRelease,
+                           @NotNull DatasetStore store, boolean export) throws IOException {
+        final String filename = projectName + '_' + step;
+        List<Release> firstIReleases = new ArrayList<>();
+        Release testingRelease = null;
+        for (Release release : releases) {
+            if (release.getId() <= step) {
+                firstIReleases.add(release);
             }
+        }
+        int lastReleaseId = firstIReleases.getLast().getId();
+        for (Release release : releases) {
+            if (release.getId() == lastReleaseId + 1) {
+                testingRelease = release;
+            }
+        }
 
+        int ticketCount = 0;
+        while (ticketCount < ticketsByFixedVersion.size()
+                && ticketsByFixedVersion.get(ticketCount).getFixedVersion().getId() <= lastReleaseId) {
+            ticketCount++;
+        }
+        BitSet labels = this.gitCtrl.bugLabels(ticketsByFixedVersion.subList(0, ticketCount));
+        DatasetStore.View training = store.view(filename, rowIds(firstIReleases, classesPerRelease), labels);
+        if (export) {
+            Sink.serializeDataset(projectName, filename, firstIReleases, classesPerRelease,
+                    javaClass -> labels.get(this.gitCtrl.classOrdinal(javaClass)), Sink.DataSetType.TRAINING);
+        }
+
+        if (testingRelease == null) {
+            String severe = "generateDataset " + filename + ": no testing release " + (lastReleaseId + 1);
+            SeLogger.getInstance().getLogger().severe(severe);
+            return;
+        }
+        BitSet testingLabels = new BitSet();
+        for (JavaClass javaClass : classesPerRelease.getOrDefault(testingRelease.getId(), List.of())) {
+            if (javaClass.getMetrics().isBug()) {
+                testingLabels.set(this.gitCtrl.classOrdinal(javaClass));
+            }
+        }
+        DatasetStore.View testing = store.view(filename, rowIds(List.of(testingRelease), classesPerRelease),
+                testingLabels);
+        if (export) {
+            Sink.serializeDataset(projectName, filename, List.of(testingRelease), classesPerRelease,
+                    javaClass -> javaClass.getMetrics().isBug(), Sink.DataSetType.TESTING);
         }
+        this.datasets.put(step, new DatasetStore.Step(training, testing));
+    }
+
+    private int @NotNull [] rowIds(@NotNull List<Release> releases,
+                                   @NotNull Map<Integer, List<JavaClass>> classesPerRelease) {
+        return releases.stream()
+                .flatMap(release -> classesPerRelease.getOrDefault(release.getId(), List.of()).stream())
+                .mapToInt(this.gitCtrl::classOrdinal)
+                .toArray();
+    }
+
+    /**
+     * @return walk-forward iteration -> in-memory datasets of the steps built by the last
+     * {@link #generateDataset(String)}
+     */
+    public @NotNull Map<Integer, DatasetStore.Step> getDatasets() {
+        return Collections.unmodifiableMap(this.datasets);
+    }
 
+    /**
+     * @return the walk-forward steps written by the last {@link #generateDataset(String)}
+     */
+    public int getRegeneratedSteps() {
+        return regeneratedSteps;
     }
 
 }
@@ -1,6 +1,7 @@
 package it.torvergata.ahmed.controller;
 
 import it.torvergata.ahmed.logging.SeLogger;
+import it.torvergata.ahmed.utilities.Scheduler;
 import it.torvergata.ahmed.utilities.WorkLoader;
 import org.json.JSONObject;
 
@@ -8,7 +9,6 @@ import java.util.Iterator;
 import java.util.Objects;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.logging.Logger;
 
 public class ProgramFlow {
@@ -17,6 +17,12 @@ public class ProgramFlow {
     private ProgramFlow() {
     }
 
+    /**
+     * Run the pipelines of all the targets at once: they share the permits of the {@link Scheduler}, so
+     * each phase of each project gets the cores in turn.
+     *
+     * @param path the targets file
+     */
     public static void run(String path) {
         JSONObject targets = Objects.requireNonNull(WorkLoader.load(path));
         Iterator<String> keys = targets.keys();
@@ -28,7 +34,7 @@ public class ProgramFlow {
         CountDownLatch latch = new CountDownLatch(threads);
         int count = 0;
 
-        try (ExecutorService executorService = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors())) {
+        try (ExecutorService executorService = Scheduler.newExecutor("pipeline")) {
             while (keys.hasNext()) {
                 String key = keys.next();
                 String value = targets.getString(key);
@@ -0,0 +1,181 @@
+package it.torvergata.ahmed.controller;
+
+import it.torvergata.ahmed.logging.SeLogger;
+import it.torvergata.ahmed.model.Commit;
+import it.torvergata.ahmed.model.JavaClass;
+import it.torvergata.ahmed.model.Release;
+import it.torvergata.ahmed.utilities.ParseCache;
+import it.torvergata.ahmed.utilities.Scheduler;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static it.torvergata.ahmed.controller.GitInjection.JAVA_EXTENTION;
+import static it.torvergata.ahmed.controller.GitInjection.TEST;
+
+/**
+ * Load the java classes of the release snapshots (the tree of the last commit of each release).
+ * The trees are walked on a pool, each walker with its own {@link ObjectReader}, and the loaded blobs go
+ * through a bounded queue to the parser workers, so blob loading and parsing overlap. A walker takes an I/O
+ * permit of the {@link Scheduler} for each blob read and a parser a CPU permit for each file, neither while
+ * it waits on the queue. A file that fails to parse is logged and skipped; any other failure of a walker or
+ * a parser stops the load at once, so no worker is left blocked on the queue.
+ */
+public class ReleaseSnapshotLoader {
+
+    private static final int QUEUE_CAPACITY = 256;
+    private static final long END_OFFER_MILLIS = 100;
+
+    private final Repository repository;
+    private final ParseCache parseCache;
+    private final int walkers;
+    private final int parsers;
+
+    /**
+     * One source file of a snapshot waiting to be parsed
+     */
+    private record Source(String path, ObjectId blobId, String content, Release release) {
+    }
+
+    private static final Source END = new Source(null, null, null, null);
+
+    public ReleaseSnapshotLoader(Repository repository, ParseCache parseCache) {
+        this.repository = repository;
+        this.parseCache = parseCache;
+        int cores = Scheduler.cpuPermits();
+        this.walkers = Math.max(1, cores / 2);
+        this.parsers = Math.max(1, cores);
+    }
+
+    /**
+     * @param latestCommits the last commit of each release
+     * @return all the parsable java classes sorted by release and path
+     */
+    public @NotNull List<JavaClass> load(@NotNull List<Commit> latestCommits) throws IOException {
+        BlockingQueue<Source> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        Queue<JavaClass> loaded = new ConcurrentLinkedQueue<>();
+        ExecutorService walkerPool = Executors.newFixedThreadPool(Math.min(walkers,
+                Math.max(1, latestCommits.size())), Thread.ofVirtual().name("snapshot-walker-", 0).factory());
+        ExecutorService parserPool = Executors.newFixedThreadPool(parsers,
+                Thread.ofVirtual().name("snapshot-parser-", 0).factory());
+        // completed by the first walker or parser that fails, the load stops at once
+        CompletableFuture<Void> failed = new CompletableFuture<>();
+        try {
+            List<CompletableFuture<Void>> parserTasks = new ArrayList<>();
+            for (int i = 0; i < parsers; i++) {
+                parserTasks.add(task(() -> parse(queue, loaded), parserPool, failed));
+            }
+            List<CompletableFuture<Void>> walkerTasks = new ArrayList<>();
+            for (Commit commit : latestCommits) {
+                walkerTasks.add(task(() -> walk(commit, queue), walkerPool, failed));
+            }
+            waitAll(walkerTasks, failed);
+            for (int i = 0; i < parsers; i++) {
+                while (!queue.offer(END, END_OFFER_MILLIS, TimeUnit.MILLISECONDS)) {
+                    waitAll(List.of(), failed);
+                }
+            }
+            waitAll(parserTasks, failed);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("snapshot loading interrupted", e);
+        } finally {
+            walkerPool.shutdownNow();
+            parserPool.shutdownNow();
+        }
+        List<JavaClass> javaClasses = new ArrayList<>(loaded);
+        javaClasses.sort(Comparator.comparingInt((JavaClass javaClass) -> javaClass.getRelease().getId())
+                .thenComparing(JavaClass::getName));
+        return javaClasses;
+    }
+
+    private static @NotNull CompletableFuture<Void> task(@NotNull Runnable body, @NotNull ExecutorService pool,
+                                                         @NotNull CompletableFuture<Void> failed) {
+        CompletableFuture<Void> task = CompletableFuture.runAsync(body, pool);
+        task.whenComplete((ignored, e) -> {
+            if (e != null) {
+                failed.completeExceptionally(e instanceof CompletionException && e.getCause() != null ?
+                        e.getCause() : e);
+            }
+        });
+        return task;
+    }
+
+    private void walk(@NotNull Commit commit, BlockingQueue<Source> queue) {
+        try (ObjectReader reader = repository.newObjectReader();
+             TreeWalk treeWalk = new TreeWalk(reader)) {
+            treeWalk.addTree(commit.getRevCommit().getTree());
+            treeWalk.setRecursive(true);
+            while (treeWalk.next()) {
+                String path = treeWalk.getPathString();
+                if (path.contains(JAVA_EXTENTION) && !path.contains("/test/") && !path.contains(TEST)) {
+                    ObjectId blobId = treeWalk.getObjectId(0);
+                    byte[] bytes = Scheduler.io(() -> reader.open(blobId).getBytes());
+                    String content = new String(bytes, StandardCharsets.UTF_8);
+                    queue.put(new Source(path, blobId, content, commit.getRelease()));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void parse(BlockingQueue<Source> queue, Queue<JavaClass> loaded) {
+        try {
+            Source source;
+            while ((source = queue.take()) != END) {
+                Source toParse = source;
+                try {
+                    JavaClass javaClass = Scheduler.cpu(() -> new JavaClass(toParse.path(), toParse.content(),
+                            toParse.blobId(), toParse.release(),
+                            parseCache.get(toParse.blobId(), toParse::content)));
+                    if (javaClass.isHasMap()) {
+                        loaded.add(javaClass);
+                    }
+                } catch (IOException e) {
+                    // the parse cache could not be read: not a problem of this file
+                    throw new UncheckedIOException(e);
+                } catch (RuntimeException | StackOverflowError e) {
+                    String msg = "snapshot " + toParse.release().getReleaseName() + " " + toParse.path() +
+                            " skipped: " + e;
+                    SeLogger.getInstance().getLogger().severe(msg);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Wait for the tasks, or for the first failure of any task of the load
+     */
+    private static void waitAll(@NotNull List<CompletableFuture<Void>> tasks, @NotNull CompletableFuture<Void> failed)
+            throws IOException, InterruptedException {
+        try {
+            CompletableFuture.anyOf(CompletableFuture.allOf(tasks.toArray(CompletableFuture[]::new)), failed)
+                    .get();
+            if (failed.isDone()) {
+                failed.get();
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = failed.isCompletedExceptionally() ? failed.exceptionNow() : e.getCause();
+            if (cause instanceof UncheckedIOException uncheckedIOException) {
+                throw uncheckedIOException.getCause();
+            }
+            if (cause instanceof IOException ioException) {
+                throw ioException;
+            }
+            throw new IOException(cause);
+        }
+    }
+}
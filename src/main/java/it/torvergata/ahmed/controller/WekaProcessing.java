@@ -3,7 +3,12 @@ package it.torvergata.ahmed.controller;
 import it.torvergata.ahmed.logging.SeLogger;
 import it.torvergata.ahmed.model.ClassifierResult;
 import it.torvergata.ahmed.model.CustomClassifier;
+import it.torvergata.ahmed.utilities.AnalysisStore;
+import it.torvergata.ahmed.utilities.DatasetStore;
+import it.torvergata.ahmed.utilities.FilterResultCache;
+import it.torvergata.ahmed.utilities.Scheduler;
 import it.torvergata.ahmed.utilities.Sink;
+import org.jetbrains.annotations.NotNull;
 import weka.classifiers.Classifier;
 import weka.classifiers.Evaluation;
 import weka.core.Instances;
@@ -11,23 +16,48 @@ import weka.core.converters.ConverterUtils;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
-import java.util.concurrent.CountDownLatch;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 public class WekaProcessing {
 
+
     private final String projName;
     private final int numIter;
     private final List<ClassifierResult> classifierResults;
+    /**
+     * In-memory datasets of the steps built in this run, the other steps are read from their arff files
+     */
+    private final Map<Integer, DatasetStore.Step> datasets;
 
     public WekaProcessing(String projectName, int iterations) {
+        this(projectName, iterations, Collections.emptyMap());
+    }
+
+    /**
+     * @param projectName the project
+     * @param iterations  the walk-forward iterations
+     * @param datasets    walk-forward iteration -> training and testing sets already in memory
+     */
+    public WekaProcessing(String projectName, int iterations, @NotNull Map<Integer, DatasetStore.Step> datasets) {
         this.projName = projectName;
         this.numIter = iterations;
         this.classifierResults = new ArrayList<>();
+        this.datasets = datasets;
     }
 
 
+    /**
+     * Train and evaluate every classifier combination of every walk-forward iteration: each pair
+     * (iteration, combination) is one task under a CPU permit of the {@link Scheduler} shared by all the
+     * projects, the tasks of the project are queued longest first by their estimated cost and each result
+     * lands in its own slot, so the report keeps the iteration and combination order whatever the
+     * completion order.
+     */
     public void classify() {
 
         final String arff = Sink.FileExtension.ARFF.name().toLowerCase(Locale.getDefault());
@@ -36,61 +66,137 @@ public class WekaProcessing {
         final String training_path = head + "training" + File.separator + this.projName;
         final String testing_path = head + "testing" + File.separator + this.projName;
 
-        // Create a CountDownLatch with numIter count
-        CountDownLatch latch = new CountDownLatch(this.numIter);
-
+        ClassifierCostModel costModel = ClassifierCostModel.load(AnalysisStore.directory(projName));
+        FilterResultCache filterCache = new FilterResultCache();
+        List<ClassifierTask> tasks = new ArrayList<>();
         for (int walkForwardIteration = 1; walkForwardIteration <= this.numIter; walkForwardIteration++) {
             final int iteration = walkForwardIteration;
+            try {
+                Instances trainingSetInstance;
+                Instances testingSetInstance;
+                DatasetStore.Step step = datasets.get(iteration);
+                if (step != null) {
+                    trainingSetInstance = step.training().toInstances();
+                    testingSetInstance = step.testing().toInstances();
+                } else {
+                    trainingSetInstance = new ConverterUtils
+                            .DataSource(training_path + '_' + iteration + '.' + arff).getDataSet();
+                    testingSetInstance = new ConverterUtils
+                            .DataSource(testing_path + '_' + iteration + '.' + arff).getDataSet();
+                }
 
-            Runnable task = () -> {
-                try {
-                    ConverterUtils.DataSource trainingSetDataSource = new ConverterUtils
-                            .DataSource(training_path + '_' + iteration + '.' + arff);
-                    ConverterUtils.DataSource testingSetDataSource = new ConverterUtils
-                            .DataSource(testing_path + '_' + iteration + '.' + arff);
-                    Instances trainingSetInstance = trainingSetDataSource.getDataSet();
-                    Instances testingSetInstance = testingSetDataSource.getDataSet();
-
-                    int numAttr = trainingSetInstance.numAttributes();
-                    trainingSetInstance.setClassIndex(numAttr - 1);
-                    testingSetInstance.setClassIndex(numAttr - 1);
-
-                    List<CustomClassifier> customClassifiers =
-                            ComputeAllClassifiersCombinations.returnAllClassifiersCombinations(
-                                    trainingSetInstance.attributeStats(numAttr - 1));
-
-                    for (CustomClassifier customClassifier : customClassifiers) {
-                        Evaluation evaluator = new Evaluation(testingSetInstance);
-                        Classifier classifier = customClassifier.getClassifier();
-                        classifier.buildClassifier(trainingSetInstance);
-                        evaluator.evaluateModel(classifier, testingSetInstance);
-                        ClassifierResult resultOfClassifier = new ClassifierResult(iteration, customClassifier, evaluator);
-                        resultOfClassifier.setTrainingPercent(100.0 * (
-                                (double) trainingSetInstance.numInstances() /
-                                        (trainingSetInstance.numInstances() + testingSetInstance.numInstances())));
-
-                        synchronized (classifierResults) { // Ensure thread-safe access
-                            classifierResults.add(resultOfClassifier);
-                        }
-                    }
-                } catch (Exception e) {
-                    final String severe = "Error in classify() during walkForwardIteration: " + iteration;
-                    SeLogger.getInstance().getLogger().severe(severe + ": " + e.getMessage());
-                } finally {
-                    latch.countDown(); // Decrement latch count when done
+                int numAttr = trainingSetInstance.numAttributes();
+                trainingSetInstance.setClassIndex(numAttr - 1);
+                testingSetInstance.setClassIndex(numAttr - 1);
+
+                List<CustomClassifier> customClassifiers =
+                        ComputeAllClassifiersCombinations.returnAllClassifiersCombinations();
+                IterationSets sets = new IterationSets(trainingSetInstance, testingSetInstance,
+                        FilterResultCache.fingerprint(trainingSetInstance), filterCache);
+                int instances = trainingSetInstance.numInstances() + testingSetInstance.numInstances();
+                for (CustomClassifier customClassifier : customClassifiers) {
+                    tasks.add(new ClassifierTask(tasks.size(), iteration, customClassifier, sets,
+                            costModel.estimate(customClassifier, instances)));
                 }
-            };
+            } catch (Exception e) {
+                final String severe = "Error in classify() during walkForwardIteration: " + iteration;
+                SeLogger.getInstance().getLogger().severe(severe + ": " + e.getMessage());
+            }
+        }
+
+        AtomicReferenceArray<ClassifierResult> results = new AtomicReferenceArray<>(tasks.size());
+        List<ClassifierTask> queue = new ArrayList<>(tasks);
+        Collections.sort(queue);
+        // the permits are granted in arrival order: longest first within the project
+        try (ExecutorService executor = Scheduler.newExecutor("classifier-" + projName)) {
+            for (ClassifierTask task : queue) {
+                executor.execute(() -> {
+                    ClassifierResult result = Scheduler.cpu(task::call);
+                    if (result != null) {
+                        results.set(task.slot, result);
+                        costModel.record(task.customClassifier, task.instances(), task.nanos);
+                    }
+                });
+            }
+        }
+        for (int i = 0; i < results.length(); i++) {
+            ClassifierResult result = results.get(i);
+            if (result != null) {
+                classifierResults.add(result);
+            }
+        }
+        costModel.save();
+        String info = projName + " filter results: " + filterCache.getStats();
+        SeLogger.getInstance().getLogger().info(info);
+    }
+
+    /**
+     * Training and testing sets of one walk-forward iteration, with the filter results shared by its
+     * combinations
+     */
+    private record IterationSets(Instances training, Instances testing, long fingerprint,
+                                 FilterResultCache cache) {
+    }
+
+    /**
+     * One classifier combination of one walk-forward iteration, ordered by decreasing estimated cost
+     */
+    private static final class ClassifierTask implements Comparable<ClassifierTask> {
+
+        private final int slot;
+        private final int iteration;
+        private final CustomClassifier customClassifier;
+        private final IterationSets sets;
+        private final double estimate;
+        private long nanos;
+
+        private ClassifierTask(int slot, int iteration, CustomClassifier customClassifier, IterationSets sets,
+                               double estimate) {
+            this.slot = slot;
+            this.iteration = iteration;
+            this.customClassifier = customClassifier;
+            this.sets = sets;
+            this.estimate = estimate;
+        }
+
+        private int instances() {
+            return sets.training().numInstances() + sets.testing().numInstances();
+        }
 
-            // Start each task in a new thread
-            new Thread(task).start();
+        /**
+         * @return the result, null when the combination failed
+         */
+        private ClassifierResult call() {
+            ClassifierResult resultOfClassifier = null;
+            long start = System.nanoTime();
+            try {
+                ComputeAllClassifiersCombinations.Prepared prepared = ComputeAllClassifiersCombinations.prepare(
+                        customClassifier.getSpec(), sets.training(), sets.testing(), sets.fingerprint(),
+                        sets.cache());
+                Classifier classifier = prepared.classifier();
+                Instances training = prepared.training();
+                Instances testing = prepared.testing();
+                // private copies: the sets of an iteration are read by all its tasks at once
+                Instances trainingSet = new Instances(training);
+                Instances testingSet = new Instances(testing);
+                Evaluation evaluator = new Evaluation(testingSet);
+                classifier.buildClassifier(trainingSet);
+                evaluator.evaluateModel(classifier, testingSet);
+                resultOfClassifier = new ClassifierResult(iteration, customClassifier, evaluator);
+                resultOfClassifier.setTrainingPercent(100.0 * (
+                        (double) sets.training().numInstances() / instances()));
+                nanos = System.nanoTime() - start;
+            } catch (Exception e) {
+                final String severe = "Error in classify() during walkForwardIteration: " + iteration + " with " +
+                        customClassifier.getClassifierName();
+                SeLogger.getInstance().getLogger().severe(severe + ": " + e.getMessage());
+            }
+            return resultOfClassifier;
         }
 
-        // Wait for all threads to complete
-        try {
-            latch.await();
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            SeLogger.getInstance().getLogger().severe("Classification interrupted: " + e.getMessage());
+        @Override
+        public int compareTo(@NotNull ClassifierTask other) {
+            return Double.compare(other.estimate, estimate);
         }
     }
 
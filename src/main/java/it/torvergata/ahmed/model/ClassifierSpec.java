@@ -0,0 +1,42 @@
+package it.torvergata.ahmed.model;
+
+import lombok.Getter;
+
+/**
+ * Declarative description of a classifier combination: base learner x feature selection x balancing x
+ * cost matrix. The classifier pipelines are built from the spec, a new independent one for every training.
+ *
+ * @param learner          the base learner
+ * @param featureSelection true for the BestFirst attribute selection
+ * @param balancing        the sampling filter
+ * @param costSensitive    true for the cost-sensitive learning
+ */
+public record ClassifierSpec(Learner learner, boolean featureSelection, Balancing balancing, boolean costSensitive) {
+
+    @Getter
+    public enum Learner {
+        RANDOM_FOREST("RandomForest"),
+        NAIVE_BAYES("NaiveBayes"),
+        IBK("IBk");
+
+        private final String label;
+
+        Learner(String label) {
+            this.label = label;
+        }
+    }
+
+    @Getter
+    public enum Balancing {
+        NONE("NoSampling"),
+        OVER_SAMPLING("OverSampling"),
+        UNDER_SAMPLING("UnderSampling"),
+        SMOTE("SMOTE");
+
+        private final String label;
+
+        Balancing(String label) {
+            this.label = label;
+        }
+    }
+}
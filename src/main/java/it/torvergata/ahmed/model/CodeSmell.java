@@ -0,0 +1,26 @@
+package it.torvergata.ahmed.model;
+
+import lombok.Getter;
+
+/**
+ * Immutable PMD violation found in a source file, it depends only on the content of the blob
+ */
+@Getter
+public final class CodeSmell {
+
+    private final int line;
+    private final int priority;
+    private final String rule;
+    private final String ruleSet;
+    private final String packageName;
+    private final String description;
+
+    public CodeSmell(int line, int priority, String rule, String ruleSet, String packageName, String description) {
+        this.line = line;
+        this.priority = priority;
+        this.rule = rule;
+        this.ruleSet = ruleSet;
+        this.packageName = packageName;
+        this.description = description;
+    }
+}
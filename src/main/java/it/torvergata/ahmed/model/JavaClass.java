@@ -1,14 +1,11 @@
 package it.torvergata.ahmed.model;
 
-import com.github.javaparser.ParseProblemException;
-import com.github.javaparser.Position;
-import com.github.javaparser.StaticJavaParser;
-import com.github.javaparser.ast.CompilationUnit;
-import com.github.javaparser.ast.body.MethodDeclaration;
-import com.github.javaparser.ast.body.TypeDeclaration;
 import it.torvergata.ahmed.logging.SeLogger;
-import it.torvergata.ahmed.utilities.JavaParserUtil;
+import it.torvergata.ahmed.utilities.MethodIntervalIndex;
+import lombok.AccessLevel;
 import lombok.Getter;
+import org.eclipse.jgit.lib.ObjectId;
+import org.jetbrains.annotations.NotNull;
 
 import java.util.*;
 
@@ -32,6 +29,12 @@ public class JavaClass {
      * Value: method String body
      */
     private final Map<String, String> methods;
+    /**
+     * Key: Method declaration
+     * Value: parse result of the method, shared with the other classes of the same blob
+     */
+    @Getter(AccessLevel.NONE)
+    private final Map<String, ParsedMethod> parsedMethods;
     /**
      * Key: Method declaration
      * Value: Metrics
@@ -65,13 +68,50 @@ public class JavaClass {
     private final List<Integer> lOCRemovedByClass;
     private boolean hasMap = true;
 
+    /**
+     * Id of the git blob of the class body, null when the body does not come from the repository
+     */
+    private final ObjectId blobId;
+    /**
+     * Parse result of the class body
+     *
+     * @see ParsedSource
+     */
+    private final ParsedSource parsedSource;
+    /**
+     * Line ranges of the methods, built on first use
+     */
+    @Getter(AccessLevel.NONE)
+    private MethodIntervalIndex methodIndex;
+
     public JavaClass(String name, String classBody, Release release, boolean update) {
+        this(name, classBody, null, release, ParsedSource.parse(classBody), update);
+    }
+
+    /**
+     * Build the class on top of an already parsed blob
+     *
+     * @param name      the path of the class
+     * @param classBody the class body
+     * @param blobId    the git blob of the body
+     * @param release   the release of this snapshot
+     * @param parsed    the parse result of the body (possibly shared between releases)
+     */
+    public JavaClass(String name, String classBody, ObjectId blobId, Release release, ParsedSource parsed) {
+        this(name, classBody, blobId, release, parsed, true);
+    }
+
+    private JavaClass(String name, String classBody, ObjectId blobId, Release release, ParsedSource parsed,
+                      boolean update) {
         this.name = name;
         this.classBody = classBody;
+        this.blobId = blobId;
+        this.parsedSource = parsed;
         this.methods = new HashMap<>();
+        this.parsedMethods = new HashMap<>();
         this.methodsMetrics = new HashMap<>();
         this.release = release;
-        this.updateMethodsMap(update);
+        this.updateMethodsMap(parsed, update);
         this.validateMethods();
         metrics = new Metrics();
         classCommits = new ArrayList<>();
@@ -86,58 +126,26 @@ public class JavaClass {
     }
 
     /**
-     * Parse java class and get in string format method declaration and initialize a method
-     * Metrics map
+     * Get in string format method declaration and initialize a method Metrics map from the parsed class
      *
      * @see Metrics
      */
-    private void updateMethodsMap(boolean update) {
-        CompilationUnit cu;
-        try {
-            cu = StaticJavaParser.parse(this.classBody);
-        }catch (ParseProblemException e){
-            SeLogger.getInstance().getLogger().warning(e.getClass().getSimpleName()+" exception for class="
-                    +this.name + "message: " + e.getMessage());
+    private void updateMethodsMap(@NotNull ParsedSource parsed, boolean update) {
+        if (!parsed.isParsed()) {
+            SeLogger.getInstance().getLogger().warning(parsed.getProblem() + " for class=" + this.name);
             hasMap = false;
             return;
         }
-        cu.getPackageDeclaration().ifPresent(packageDeclaration ->
-                this.packageName = packageDeclaration.getNameAsString());
-        cu.getTypes().stream()
-                .findFirst()
-                .map(TypeDeclaration::getNameAsString).ifPresent(className ->
-                        this.simpleName = className);
-
-        cu.findAll(MethodDeclaration.class).forEach(methodDeclaration -> {
-
-            String signature = JavaParserUtil.getSignature(methodDeclaration);
-
-                methods.put(signature, JavaParserUtil.getStringBody(methodDeclaration));
-                if (update) {
-                    MethodMetrics methodMetrics = new MethodMetrics();
-                    methodsMetrics.put(signature, methodMetrics);
-                    methodMetrics.setParameterCount(JavaParserUtil.computeParameterCount(methodDeclaration));
-                    methodMetrics.setLinesOfCode(JavaParserUtil.computeLOC(methodDeclaration));
-                    methodMetrics.setStatementCount(JavaParserUtil.computeStatementCount(methodDeclaration));
-                    methodMetrics.setCyclomaticComplexity(
-                            JavaParserUtil.computeCyclomaticComplexity(methodDeclaration));
-                    methodMetrics.setNestingDepth(JavaParserUtil.computeNestingDepth(methodDeclaration));
-                    methodMetrics.setMethodAccessor(methodDeclaration.getAccessSpecifier().asString());
-                    methodDeclaration.getBody().ifPresent(body ->
-                            methodMetrics.setCognitiveComplexity(JavaParserUtil.calculateCognitiveComplexity(body)));
-                    methodMetrics.setBeginLine(methodDeclaration.getBegin()
-                            .orElse(new Position(0, 0)).line);
-                    methodMetrics.setEndLine(methodDeclaration.getEnd()
-                            .orElse(new Position(0, 0)).line);
-                    methodMetrics.setSimpleName(methodDeclaration.getNameAsString());
-                    methodMetrics.setAge(this.release.getId());
-                    methodMetrics.setHalsteadEffort(
-                            JavaParserUtil.computeHalsteadEffort(methodDeclaration));
-                    methodMetrics.setCommentDensity(
-                            JavaParserUtil.computeCommentDensity(methodDeclaration));
-                }
-
-        });
+        this.packageName = parsed.getPackageName();
+        this.simpleName = parsed.getSimpleName();
+
+        for (ParsedMethod parsedMethod : parsed.getMethods()) {
+            methods.put(parsedMethod.getSignature(), parsedMethod.getBody());
+            parsedMethods.put(parsedMethod.getSignature(), parsedMethod);
+            if (update) {
+                methodsMetrics.put(parsedMethod.getSignature(), parsedMethod.newMetrics(this.release));
+            }
+        }
 
     }
 
@@ -170,6 +178,25 @@ public class JavaClass {
     }
 
 
+    /**
+     * @param signature the method declaration
+     * @return the parse result of the method, null when the class has no such method
+     */
+    public ParsedMethod getParsedMethod(String signature) {
+        return parsedMethods.get(signature);
+    }
+
+    /**
+     * @return the interval index over the line ranges of the methods
+     * @see MethodIntervalIndex
+     */
+    public synchronized @NotNull MethodIntervalIndex getMethodIndex() {
+        if (methodIndex == null) {
+            methodIndex = MethodIntervalIndex.of(methodsMetrics.values());
+        }
+        return methodIndex;
+    }
+
     @Override
     public String toString() {
         return "JavaClass{" +
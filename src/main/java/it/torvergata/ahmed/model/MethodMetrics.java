@@ -5,6 +5,7 @@ import lombok.Getter;
 import lombok.Setter;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -113,6 +114,20 @@ public class MethodMetrics {
         this.numberOfChanges += 1;
     }
 
+    /**
+     * Set the history metrics computed by a previous run
+     */
+    public void restoreHistory(int addedChurn, int removedChurn, int maxAddedChurn, int maxRemovedChurn,
+                               int numberOfChanges, @NotNull Collection<String> authors) {
+        this.addedChurn = addedChurn;
+        this.removedChurn = removedChurn;
+        this.maxAddedChurn = maxAddedChurn;
+        this.maxRemovedChurn = maxRemovedChurn;
+        this.numberOfChanges = numberOfChanges;
+        this.authors.clear();
+        this.authors.addAll(authors);
+    }
+
     @Override
     public String toString() {
         return "MethodMetrics{" +
@@ -0,0 +1,149 @@
+package it.torvergata.ahmed.model;
+
+import com.github.javaparser.Position;
+import com.github.javaparser.ast.body.MethodDeclaration;
+import com.github.javaparser.ast.expr.MethodCallExpr;
+import it.torvergata.ahmed.utilities.JavaParserUtil;
+import it.torvergata.ahmed.utilities.LineSequence;
+import lombok.AccessLevel;
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+/**
+ * Immutable result of parsing one method declaration: body, static metrics and calls.
+ * It is shared by every {@link JavaClass} built from the same blob, so it never holds
+ * per-release values (see {@link MethodMetrics} for those)
+ */
+@Getter
+public final class ParsedMethod {
+
+    private final String signature;
+    private final String simpleName;
+    private final String body;
+    private final boolean hasBody;
+    private final int parameterCount;
+    private final int linesOfCode;
+    private final int statementCount;
+    private final int cyclomaticComplexity;
+    private final int nestingDepth;
+    private final int cognitiveComplexity;
+    private final String methodAccessor;
+    private final int beginLine;
+    private final int endLine;
+    private final double halsteadEffort;
+    private final double commentDensity;
+    /**
+     * Names of all the methods called in the declaration (fan-out)
+     */
+    private final Set<String> calleeNames;
+    /**
+     * Calls found in the body, in source order (fan-in)
+     */
+    private final List<Call> bodyCalls;
+    /**
+     * Lines of the body, split on first use and then shared like the rest of the parse result
+     */
+    @Getter(AccessLevel.NONE)
+    private volatile LineSequence lines;
+
+    @Getter
+    public static final class Call {
+        private final String name;
+        private final int arity;
+
+        public Call(String name, int arity) {
+            this.name = name;
+            this.arity = arity;
+        }
+    }
+
+    @SuppressWarnings("java:S107")
+    public ParsedMethod(String signature, String simpleName, String body, boolean hasBody, int parameterCount,
+                        int linesOfCode, int statementCount, int cyclomaticComplexity, int nestingDepth,
+                        int cognitiveComplexity, String methodAccessor, int beginLine, int endLine,
+                        double halsteadEffort, double commentDensity, Set<String> calleeNames,
+                        List<Call> bodyCalls) {
+        this.signature = signature;
+        this.simpleName = simpleName;
+        this.body = body;
+        this.hasBody = hasBody;
+        this.parameterCount = parameterCount;
+        this.linesOfCode = linesOfCode;
+        this.statementCount = statementCount;
+        this.cyclomaticComplexity = cyclomaticComplexity;
+        this.nestingDepth = nestingDepth;
+        this.cognitiveComplexity = cognitiveComplexity;
+        this.methodAccessor = methodAccessor;
+        this.beginLine = beginLine;
+        this.endLine = endLine;
+        this.halsteadEffort = halsteadEffort;
+        this.commentDensity = commentDensity;
+        this.calleeNames = calleeNames;
+        this.bodyCalls = bodyCalls;
+    }
+
+    public static @NotNull ParsedMethod of(@NotNull MethodDeclaration methodDeclaration) {
+        Set<String> calleeNames = new HashSet<>();
+        methodDeclaration.findAll(MethodCallExpr.class)
+                .forEach(call -> calleeNames.add(call.getNameAsString()));
+        List<Call> bodyCalls = new ArrayList<>();
+        methodDeclaration.getBody().ifPresent(block -> block.findAll(MethodCallExpr.class)
+                .forEach(call -> bodyCalls.add(new Call(call.getNameAsString(), call.getArguments().size()))));
+        return new ParsedMethod(
+                JavaParserUtil.getSignature(methodDeclaration),
+                methodDeclaration.getNameAsString(),
+                JavaParserUtil.getStringBody(methodDeclaration),
+                methodDeclaration.getBody().isPresent(),
+                JavaParserUtil.computeParameterCount(methodDeclaration),
+                JavaParserUtil.computeLOC(methodDeclaration),
+                JavaParserUtil.computeStatementCount(methodDeclaration),
+                JavaParserUtil.computeCyclomaticComplexity(methodDeclaration),
+                JavaParserUtil.computeNestingDepth(methodDeclaration),
+                methodDeclaration.getBody().map(JavaParserUtil::calculateCognitiveComplexity).orElse(0),
+                methodDeclaration.getAccessSpecifier().asString(),
+                methodDeclaration.getBegin().orElse(new Position(0, 0)).line,
+                methodDeclaration.getEnd().orElse(new Position(0, 0)).line,
+                JavaParserUtil.computeHalsteadEffort(methodDeclaration),
+                JavaParserUtil.computeCommentDensity(methodDeclaration),
+                Collections.unmodifiableSet(calleeNames),
+                Collections.unmodifiableList(bodyCalls));
+    }
+
+    /**
+     * @return the lines of the body
+     */
+    public @NotNull LineSequence getLines() {
+        LineSequence result = lines;
+        if (result == null) {
+            result = LineSequence.of(body);
+            lines = result;
+        }
+        return result;
+    }
+
+    /**
+     * Build fresh metrics for a release: every mutable value starts from scratch
+     *
+     * @param release the release of the class
+     * @return the metrics of the method in the release
+     */
+    public @NotNull MethodMetrics newMetrics(@NotNull Release release) {
+        MethodMetrics methodMetrics = new MethodMetrics();
+        methodMetrics.setParameterCount(parameterCount);
+        methodMetrics.setLinesOfCode(linesOfCode);
+        methodMetrics.setStatementCount(statementCount);
+        methodMetrics.setCyclomaticComplexity(cyclomaticComplexity);
+        methodMetrics.setNestingDepth(nestingDepth);
+        methodMetrics.setMethodAccessor(methodAccessor);
+        methodMetrics.setCognitiveComplexity(cognitiveComplexity);
+        methodMetrics.setBeginLine(beginLine);
+        methodMetrics.setEndLine(endLine);
+        methodMetrics.setSimpleName(simpleName);
+        methodMetrics.setAge(release.getId());
+        methodMetrics.setHalsteadEffort(halsteadEffort);
+        methodMetrics.setCommentDensity(commentDensity);
+        return methodMetrics;
+    }
+}
@@ -0,0 +1,56 @@
+package it.torvergata.ahmed.model;
+
+import com.github.javaparser.ParseProblemException;
+import com.github.javaparser.StaticJavaParser;
+import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.ast.body.MethodDeclaration;
+import com.github.javaparser.ast.body.TypeDeclaration;
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable parse result of a java source file
+ *
+ * @see ParsedMethod
+ */
+@Getter
+public final class ParsedSource {
+
+    private final boolean parsed;
+    private final String packageName;
+    private final String simpleName;
+    /**
+     * All method declarations in source order
+     */
+    private final List<ParsedMethod> methods;
+    private final String problem;
+
+    public ParsedSource(boolean parsed, String packageName, String simpleName, List<ParsedMethod> methods,
+                        String problem) {
+        this.parsed = parsed;
+        this.packageName = packageName;
+        this.simpleName = simpleName;
+        this.methods = methods;
+        this.problem = problem;
+    }
+
+    public static @NotNull ParsedSource parse(String classBody) {
+        CompilationUnit cu;
+        try {
+            cu = StaticJavaParser.parse(classBody);
+        } catch (ParseProblemException e) {
+            return new ParsedSource(false, "", "", Collections.emptyList(),
+                    e.getClass().getSimpleName() + " exception message: " + e.getMessage());
+        }
+        String packageName = cu.getPackageDeclaration().map(p -> p.getNameAsString()).orElse("");
+        String simpleName = cu.getTypes().stream().findFirst().map(TypeDeclaration::getNameAsString).orElse("");
+        List<ParsedMethod> methods = new ArrayList<>();
+        cu.findAll(MethodDeclaration.class).forEach(methodDeclaration ->
+                methods.add(ParsedMethod.of(methodDeclaration)));
+        return new ParsedSource(true, packageName, simpleName, Collections.unmodifiableList(methods), null);
+    }
+}
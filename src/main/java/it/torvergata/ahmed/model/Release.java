@@ -1,11 +1,14 @@
 package it.torvergata.ahmed.model;
 
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 @Getter
 public final class Release {
@@ -14,11 +17,14 @@ public final class Release {
     private final String releaseName;
     private final LocalDate releaseDate;
     private final List<Commit> commitList;
+    @Getter(AccessLevel.NONE)
+    private final Set<Commit> commitSet;
 
     public Release(String releaseName, LocalDate releaseDate) {
         this.releaseName = releaseName;
         this.releaseDate = releaseDate;
         commitList = new ArrayList<>();
+        commitSet = new HashSet<>();
     }
 
     public Release(int id, String releaseName, LocalDate releaseDate) {
@@ -26,10 +32,11 @@ public final class Release {
         this.releaseName = releaseName;
         this.releaseDate = releaseDate;
         commitList = new ArrayList<>();
+        commitSet = new HashSet<>();
     }
 
     public void addCommit(Commit newCommit) {
-        if(!commitList.contains(newCommit)){
+        if(commitSet.add(newCommit)){
             commitList.add(newCommit);
         }
     }
@@ -0,0 +1,305 @@
+package it.torvergata.ahmed.utilities;
+
+import it.torvergata.ahmed.logging.SeLogger;
+import it.torvergata.ahmed.model.CodeSmell;
+import it.torvergata.ahmed.model.ParsedMethod;
+import it.torvergata.ahmed.model.ParsedSource;
+import net.sourceforge.pmd.PMDVersion;
+import org.eclipse.jgit.lib.ObjectId;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+
+import static it.torvergata.ahmed.controller.GitInjection.PMD_RULESET;
+
+/**
+ * Persistent analysis cache of a project, stored under {@code .temp/cache/<project>}, outside the clone:
+ * <ul>
+ *     <li>per blob: the parse result with the static method metrics</li>
+ *     <li>per commit: the touched java files with the lines added and deleted in each of them</li>
+ *     <li>per blob: the PMD violations, the file is rebuilt when the ruleset or the PMD version change</li>
+ * </ul>
+ * Everything is keyed by git object id, so the entries never go stale: a second run on the same
+ * history does not parse nor diff anything again.
+ */
+public class AnalysisStore implements Closeable {
+
+    public static final String CACHE_DIR = "cache";
+    /**
+     * Bump when the layout of a payload changes, the old files are then rebuilt
+     */
+    static final int FORMAT_VERSION = 1;
+
+    private final RecordFile parsedFile;
+    private final RecordFile diffFile;
+    private final RecordFile smellsFile;
+
+    private AnalysisStore(RecordFile parsedFile, RecordFile diffFile, RecordFile smellsFile) {
+        this.parsedFile = parsedFile;
+        this.diffFile = diffFile;
+        this.smellsFile = smellsFile;
+    }
+
+    /**
+     * @param project the project
+     * @return the cache directory of the project, shared with the other files kept between the runs
+     */
+    public static @NotNull Path directory(@NotNull String project) {
+        return Path.of(".temp", CACHE_DIR, project.toLowerCase(Locale.getDefault()));
+    }
+
+    /**
+     * Open the store in a cache directory
+     *
+     * @param dir the cache directory of the project
+     * @return the store or null when the files cannot be opened
+     */
+    public static @Nullable AnalysisStore open(@NotNull Path dir) {
+        try {
+            AnalysisStore store = new AnalysisStore(
+                    new RecordFile(dir.resolve("parsed.bin"), FORMAT_VERSION),
+                    new RecordFile(dir.resolve("diffs.bin"), FORMAT_VERSION),
+                    new RecordFile(dir.resolve("smells.bin"), smellsVersion()));
+            String msg = "analysis store " + dir + ": blobs=" + store.parsedFile.size() + " diffs=" +
+                    store.diffFile.size() + " smells=" + store.smellsFile.size();
+            SeLogger.getInstance().getLogger().info(msg);
+            return store;
+        } catch (IOException e) {
+            String warning = "analysis store disabled " + dir + ": " + e.getMessage();
+            SeLogger.getInstance().getLogger().warning(warning);
+            return null;
+        }
+    }
+
+    /**
+     * Version of the smells file: the violations change with the ruleset and with the PMD rules.
+     * The release snapshots of {@code IncrementalState} hold smell counts and check it too.
+     */
+    public static int smellsVersion() throws IOException {
+        try (InputStream ruleset = AnalysisStore.class.getClassLoader().getResourceAsStream(PMD_RULESET)) {
+            byte[] bytes = ruleset == null ? new byte[0] : ruleset.readAllBytes();
+            return Objects.hash(FORMAT_VERSION, Arrays.hashCode(bytes), PMDVersion.VERSION);
+        }
+    }
+
+    public @Nullable ParsedSource getParsed(@NotNull ObjectId blobId) {
+        return read(parsedFile, blobId, AnalysisStore::readParsed);
+    }
+
+    public void putParsed(@NotNull ObjectId blobId, @NotNull ParsedSource parsed) {
+        write(parsedFile, blobId, out -> writeParsed(out, parsed));
+    }
+
+    /**
+     * @param commitId the commit
+     * @return touched path -> {added, deleted} lines in diff order, null when the commit was never diffed
+     */
+    public @Nullable Map<String, int[]> getDiff(@NotNull ObjectId commitId) {
+        return read(diffFile, commitId, in -> {
+            int size = in.readInt();
+            Map<String, int[]> stats = LinkedHashMap.newLinkedHashMap(size);
+            for (int i = 0; i < size; i++) {
+                stats.put(readString(in), new int[]{in.readInt(), in.readInt()});
+            }
+            return stats;
+        });
+    }
+
+    public void putDiff(@NotNull ObjectId commitId, @NotNull Map<String, int[]> stats) {
+        write(diffFile, commitId, out -> {
+            out.writeInt(stats.size());
+            for (Map.Entry<String, int[]> entry : stats.entrySet()) {
+                writeString(out, entry.getKey());
+                out.writeInt(entry.getValue()[0]);
+                out.writeInt(entry.getValue()[1]);
+            }
+        });
+    }
+
+    /**
+     * @param blobId the blob
+     * @return the PMD violations of the blob, null when never analyzed
+     */
+    public @Nullable List<CodeSmell> getSmells(@NotNull ObjectId blobId) {
+        return read(smellsFile, blobId, in -> {
+            int size = in.readInt();
+            List<CodeSmell> smells = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                smells.add(new CodeSmell(in.readInt(), in.readInt(), readString(in), readString(in), readString(in),
+                        readString(in)));
+            }
+            return smells;
+        });
+    }
+
+    public void putSmells(@NotNull ObjectId blobId, @NotNull List<CodeSmell> smells) {
+        write(smellsFile, blobId, out -> {
+            out.writeInt(smells.size());
+            for (CodeSmell smell : smells) {
+                out.writeInt(smell.getLine());
+                out.writeInt(smell.getPriority());
+                writeString(out, smell.getRule());
+                writeString(out, smell.getRuleSet());
+                writeString(out, smell.getPackageName());
+                writeString(out, smell.getDescription());
+            }
+        });
+    }
+
+    @Override
+    public void close() throws IOException {
+        try (parsedFile; diffFile; smellsFile) {
+            String msg = "analysis store closed: blobs=" + parsedFile.size() + " diffs=" + diffFile.size() +
+                    " smells=" + smellsFile.size();
+            SeLogger.getInstance().getLogger().info(msg);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Reader<T> {
+        T read(DataInputStream in) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface Writer {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private static <T> @Nullable T read(@NotNull RecordFile file, @NotNull ObjectId id, Reader<T> reader) {
+        try {
+            byte[] payload = file.get(id);
+            if (payload == null) {
+                return null;
+            }
+            try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload))) {
+                return reader.read(in);
+            }
+        } catch (IOException | RuntimeException e) {
+            // unreadable entry (truncated, or sizes and indexes out of range): computed again and replaced
+            // by the next write
+            file.remove(id);
+            String warning = "analysis store unreadable entry " + id.getName() + ", computing it again: " +
+                    e.getMessage();
+            SeLogger.getInstance().getLogger().warning(warning);
+            return null;
+        }
+    }
+
+    private static void write(@NotNull RecordFile file, @NotNull ObjectId id, Writer writer) {
+        if (file.contains(id)) {
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writer.write(out);
+        } catch (IOException e) {
+            return;
+        }
+        try {
+            file.put(id, bytes.toByteArray());
+        } catch (IOException e) {
+            String warning = "analysis store write failed: " + e.getMessage();
+            SeLogger.getInstance().getLogger().warning(warning);
+        }
+    }
+
+    private static void writeParsed(@NotNull DataOutputStream out, @NotNull ParsedSource parsed) throws IOException {
+        out.writeBoolean(parsed.isParsed());
+        writeString(out, parsed.getPackageName());
+        writeString(out, parsed.getSimpleName());
+        writeString(out, parsed.getProblem());
+        out.writeInt(parsed.getMethods().size());
+        for (ParsedMethod method : parsed.getMethods()) {
+            writeString(out, method.getSignature());
+            writeString(out, method.getSimpleName());
+            writeString(out, method.getBody());
+            out.writeBoolean(method.isHasBody());
+            out.writeInt(method.getParameterCount());
+            out.writeInt(method.getLinesOfCode());
+            out.writeInt(method.getStatementCount());
+            out.writeInt(method.getCyclomaticComplexity());
+            out.writeInt(method.getNestingDepth());
+            out.writeInt(method.getCognitiveComplexity());
+            writeString(out, method.getMethodAccessor());
+            out.writeInt(method.getBeginLine());
+            out.writeInt(method.getEndLine());
+            out.writeDouble(method.getHalsteadEffort());
+            out.writeDouble(method.getCommentDensity());
+            out.writeInt(method.getCalleeNames().size());
+            for (String callee : method.getCalleeNames()) {
+                writeString(out, callee);
+            }
+            out.writeInt(method.getBodyCalls().size());
+            for (ParsedMethod.Call call : method.getBodyCalls()) {
+                writeString(out, call.getName());
+                out.writeInt(call.getArity());
+            }
+        }
+    }
+
+    private static @NotNull ParsedSource readParsed(@NotNull DataInputStream in) throws IOException {
+        boolean parsed = in.readBoolean();
+        String packageName = readString(in);
+        String simpleName = readString(in);
+        String problem = readString(in);
+        int size = in.readInt();
+        List<ParsedMethod> methods = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            String signature = readString(in);
+            String methodName = readString(in);
+            String body = readString(in);
+            boolean hasBody = in.readBoolean();
+            int parameterCount = in.readInt();
+            int linesOfCode = in.readInt();
+            int statementCount = in.readInt();
+            int cyclomaticComplexity = in.readInt();
+            int nestingDepth = in.readInt();
+            int cognitiveComplexity = in.readInt();
+            String accessor = readString(in);
+            int beginLine = in.readInt();
+            int endLine = in.readInt();
+            double halsteadEffort = in.readDouble();
+            double commentDensity = in.readDouble();
+            int calleeSize = in.readInt();
+            Set<String> callees = HashSet.newHashSet(calleeSize);
+            for (int j = 0; j < calleeSize; j++) {
+                callees.add(readString(in));
+            }
+            int callSize = in.readInt();
+            List<ParsedMethod.Call> calls = new ArrayList<>(callSize);
+            for (int j = 0; j < callSize; j++) {
+                calls.add(new ParsedMethod.Call(readString(in), in.readInt()));
+            }
+            methods.add(new ParsedMethod(signature, methodName, body, hasBody, parameterCount, linesOfCode,
+                    statementCount, cyclomaticComplexity, nestingDepth, cognitiveComplexity, accessor, beginLine,
+                    endLine, halsteadEffort, commentDensity, Collections.unmodifiableSet(callees),
+                    Collections.unmodifiableList(calls)));
+        }
+        return new ParsedSource(parsed, packageName, simpleName, Collections.unmodifiableList(methods), problem);
+    }
+
+    /**
+     * Length prefixed UTF-8 string, -1 for null: unlike writeUTF there is no 64KB limit
+     */
+    private static void writeString(@NotNull DataOutputStream out, @Nullable String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static @Nullable String readString(@NotNull DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        return new String(in.readNBytes(length), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,80 @@
+package it.torvergata.ahmed.utilities;
+
+import it.torvergata.ahmed.model.JavaClass;
+import it.torvergata.ahmed.model.MethodMetrics;
+import it.torvergata.ahmed.model.ParsedMethod;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+/**
+ * Call graph of the methods of one release, built in one pass over the parse results:
+ * <ul>
+ *     <li>fan-out: the distinct names called by the declaration of a method</li>
+ *     <li>fan-in: the number of calls in the release matching the method name and arity</li>
+ * </ul>
+ * The calls are counted in parallel, each worker fills its own counters which are merged at the end,
+ * then every counter is added to the methods indexed by {@code (simpleName, arity)}.
+ */
+public final class CallGraphIndex {
+
+    private record Key(String name, int arity) {
+    }
+
+    /**
+     * (simpleName, arity) -> the methods that a call with that name and arity can target
+     */
+    private final Map<Key, List<MethodMetrics>> callees = new HashMap<>();
+    /**
+     * className.signature -> names called by the method
+     */
+    private final Map<String, Set<String>> calledNames = new HashMap<>();
+    private final List<JavaClass> classes;
+
+    private CallGraphIndex(List<JavaClass> classes) {
+        this.classes = classes;
+    }
+
+    /**
+     * @param classes the classes of a release
+     * @return the index of the release
+     */
+    public static @NotNull CallGraphIndex build(@NotNull List<JavaClass> classes) {
+        CallGraphIndex index = new CallGraphIndex(classes);
+        for (JavaClass jc : classes) {
+            String className = jc.getClassName();
+            for (ParsedMethod parsedMethod : jc.getParsedSource().getMethods()) {
+                index.calledNames.put(className + "." + parsedMethod.getSignature(), parsedMethod.getCalleeNames());
+            }
+            for (MethodMetrics mm : jc.getMethodsMetrics().values()) {
+                index.callees.computeIfAbsent(new Key(mm.getSimpleName(), mm.getParameterCount()),
+                        key -> new ArrayList<>()).add(mm);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Set the fan-out and add the fan-in of every method of the release
+     */
+    public void apply() {
+        for (JavaClass jc : classes) {
+            String className = jc.getClassName();
+            jc.getMethodsMetrics().forEach((methodSig, mm) ->
+                    mm.setFanOut(calledNames.getOrDefault(className + "." + methodSig, Collections.emptySet()).size()));
+        }
+
+        Map<Key, int[]> calls = Scheduler.collect(classes, HashMap::new,
+                (counters, jc) -> jc.getParsedSource().getMethods().forEach(parsedMethod ->
+                        parsedMethod.getBodyCalls().forEach(call -> {
+                            Key key = new Key(call.getName(), call.getArity());
+                            if (callees.containsKey(key)) {
+                                counters.computeIfAbsent(key, k -> new int[1])[0]++;
+                            }
+                        })),
+                (left, right) -> right.forEach((key, count) ->
+                        left.computeIfAbsent(key, k -> new int[1])[0] += count[0]));
+
+        calls.forEach((key, count) -> callees.get(key).forEach(mm -> mm.setFanIn(mm.getFanIn() + count[0])));
+    }
+}
@@ -1,92 +1,61 @@
 package it.torvergata.ahmed.utilities;
 
 import it.torvergata.ahmed.model.JavaClass;
-import it.torvergata.ahmed.model.Release;
 import lombok.Getter;
 import lombok.Setter;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.BufferedReader;
-import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.Reader;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.Optional;
 import java.util.function.Consumer;
 
-import static it.torvergata.ahmed.controller.GitInjection.PMD_ANALYSIS;
-
 public class CodeSmellParser {
 
-    private static final String CSV_SEPARATOR = ",";
-
     private CodeSmellParser() {
         throw new IllegalStateException("Utility class");
     }
 
-    public static void extractCodeSmell(Map<Release, List<JavaClass>> javaClassPerRelease, String project) {
-
-        javaClassPerRelease.forEach(
-                (release, classes) -> {
-                    if (release.getId() == 1){
-                        CodeSmellParser
-                                .parseCsvFile(PMD_ANALYSIS + File.separator + project
-                                        + File.separator + 0 + ".csv", 0 ,javaClassPerRelease
-                                );
-                    }
-                    CodeSmellParser
-                    .parseCsvFile(PMD_ANALYSIS + File.separator + project
-                            + File.separator + (release.getId()) + ".csv", release.getId(), javaClassPerRelease);
-                }
-        );
+    public static @NotNull Consumer<JavaCsvInfo> findCorrectValue(JavaClass jc) {
 
+        return info -> countSmell(jc, info.getLine());
     }
 
-    private static void  parseCsvFile(String csvFilePath, int release, Map<Release, List<JavaClass>> classesPerRelease) {
-
-        List<JavaCsvInfo> javaCsvInfos = new ArrayList<>();
-        extractCsvInfo(csvFilePath, javaCsvInfos, release);
-        List<JavaClass> classes;
-        Optional<Map.Entry<Release, List<JavaClass>>> optional = classesPerRelease.entrySet().stream().filter(
-                releaseListEntry -> releaseListEntry.getKey().getId() == (release + 1)
-        ).findFirst();
-        if (optional.isEmpty()){
-            return;
-        }
-        classes = optional.get().getValue();
-        for (JavaClass jc : classes) {
-
-            javaCsvInfos.stream().filter(
-                    javaCsvInfo -> javaCsvInfo.getFilename().endsWith(jc.getName()+"\"")
-                            && javaCsvInfo.getRelease() == release + 1
-            ).forEach(
-                    findCorrectValue(jc)
-            );
-        }
+    /**
+     * Add one code smell to every method of the class whose lines contain the violation
+     *
+     * @param jc   the class
+     * @param line the line of the violation
+     */
+    public static void countSmell(@NotNull JavaClass jc, int line) {
+        jc.getMethodIndex().forEachContaining(line,
+                value -> value.setNumberOfCodeSmells(value.getNumberOfCodeSmells() + 1));
     }
-    
-    public static @NotNull Consumer<JavaCsvInfo> findCorrectValue(JavaClass jc) {
-
-        return info -> jc.getMethodsMetrics().forEach(
-                (key, value) -> {
 
-                    if (info.getLine() >= value.getBeginLine()
-                            && info.getLine() <= value.getEndLine()) {
-                        value.setNumberOfCodeSmells(value.getNumberOfCodeSmells() + 1);
-                    }
-                }
-        );
+    public static void extractCsvInfo(String csvFilePath, List<JavaCsvInfo> javaCsvInfos, int release) {
+        readCsv(csvFilePath, values -> javaCsvInfos.add(new JavaCsvInfo(values, release + 1)));
     }
 
-    public static void extractCsvInfo(String csvFilePath, List<JavaCsvInfo> javaCsvInfos, int release) {
-        try (BufferedReader reader = new BufferedReader(new FileReader(csvFilePath))) {
-            String row = reader.readLine();
-            String[] columns = row.split(CSV_SEPARATOR);
+    private static void readCsv(String csvFilePath, Consumer<String[]> rowConsumer) {
+        try (CsvReader reader = new CsvReader(new BufferedReader(new FileReader(csvFilePath)))) {
+            String[] columns = reader.next();
+            if (columns == null) {
+                throw new IllegalArgumentException("bad csv file format passed: " + csvFilePath + " is empty");
+            }
             checkRowStructure(columns);
-            while ((row = reader.readLine()) != null){
-                javaCsvInfos.add(new JavaCsvInfo(row, release + 1));
+            String[] values;
+            while ((values = reader.next()) != null) {
+                if (values.length == 1 && values[0].isBlank()) {
+                    continue;
+                }
+                if (values.length != CsvHeader.values().length) {
+                    throw new IllegalArgumentException("bad csv row in " + csvFilePath + ": " + String.join(",", values));
+                }
+                rowConsumer.accept(values);
             }
         } catch (IOException e) {
             throw new IllegalArgumentException("File not found: " + csvFilePath + ": " + e.getMessage());
@@ -105,8 +74,84 @@ public class CodeSmellParser {
         }
     }
 
+    /**
+     * Streaming reader of RFC 4180 rows: quoted values can hold separators, doubled quotes and line breaks
+     */
+    private static final class CsvReader implements AutoCloseable {
+
+        private static final char SEPARATOR = ',';
+        private static final char QUOTE = '"';
 
+        private final Reader reader;
+        private int pending = -2;
 
+        private CsvReader(Reader reader) {
+            this.reader = reader;
+        }
+
+        private int read() throws IOException {
+            if (pending != -2) {
+                int c = pending;
+                pending = -2;
+                return c;
+            }
+            return reader.read();
+        }
+
+        /**
+         * @return the values of the next row, null at the end of the file
+         */
+        private String @Nullable [] next() throws IOException {
+            List<String> values = new ArrayList<>();
+            StringBuilder value = new StringBuilder();
+            boolean quoted = false;
+            int c = read();
+            if (c == -1) {
+                return null;
+            }
+            while (true) {
+                if (quoted) {
+                    if (c == -1) {
+                        throw new IOException("unterminated quoted value");
+                    }
+                    if (c == QUOTE) {
+                        int following = read();
+                        if (following == QUOTE) {
+                            value.append(QUOTE);
+                        } else {
+                            quoted = false;
+                            pending = following;
+                        }
+                    } else {
+                        value.append((char) c);
+                    }
+                } else if (c == QUOTE) {
+                    quoted = true;
+                } else if (c == SEPARATOR) {
+                    values.add(value.toString());
+                    value.setLength(0);
+                } else if (c == '\n' || c == -1) {
+                    break;
+                } else if (c == '\r') {
+                    int following = read();
+                    if (following != '\n') {
+                        pending = following;
+                    }
+                    break;
+                } else {
+                    value.append((char) c);
+                }
+                c = read();
+            }
+            values.add(value.toString());
+            return values.toArray(new String[0]);
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
 
     @Getter
     @Setter
@@ -118,27 +163,26 @@ public class CodeSmellParser {
         private int line;
         private int release;
 
-        public JavaCsvInfo(@NotNull String row, int release) {
-            String[] values = row.split(CSV_SEPARATOR);
+        public JavaCsvInfo(String @NotNull [] values, int release) {
             problem = values[CsvHeader.PROBLEM.ordinal()];
             packagePath = values[CsvHeader.PACKAGE.ordinal()];
             filename = values[CsvHeader.FILE.ordinal()];
             priority = values[CsvHeader.PRIORITY.ordinal()];
-            line = Integer.parseInt(values[CsvHeader.LINE.ordinal()].replace("\"", ""));
+            line = Integer.parseInt(values[CsvHeader.LINE.ordinal()].trim());
             this.release = release;
         }
     }
 
     @Getter
     private enum CsvHeader {
-        PROBLEM("\"Problem\""),
-        PACKAGE("\"Package\""),
-        FILE("\"File\""),
-        PRIORITY("\"Priority\""),
-        LINE("\"Line\""),
-        DESCRIPTION("\"Description\""),
-        RULE_SET("\"Rule set\""),
-        RULE("\"Rule\"");
+        PROBLEM("Problem"),
+        PACKAGE("Package"),
+        FILE("File"),
+        PRIORITY("Priority"),
+        LINE("Line"),
+        DESCRIPTION("Description"),
+        RULE_SET("Rule set"),
+        RULE("Rule");
 
         private final String value;
 
@@ -148,4 +192,4 @@ public class CodeSmellParser {
 
     }
 
-}
\ No newline at end of file
+}
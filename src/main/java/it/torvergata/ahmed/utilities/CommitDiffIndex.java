@@ -0,0 +1,197 @@
+package it.torvergata.ahmed.utilities;
+
+import it.torvergata.ahmed.logging.SeLogger;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.DiffFormatter;
+import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.diff.EditList;
+import org.eclipse.jgit.diff.RawTextComparator;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.util.io.DisabledOutputStream;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static it.torvergata.ahmed.controller.GitInjection.JAVA_EXTENTION;
+
+/**
+ * Touched java files of every commit with the lines added and deleted in each of them: each commit is
+ * diffed against its first parent once per run (never again when the {@link AnalysisStore} has it),
+ * then the touched classes, the LOC metrics and the history checks all query this index.
+ * <p>
+ * The build runs on {@code SYS_DIFF_WORKERS} workers (default the CPU permits of the {@link Scheduler}),
+ * each one owning its {@link ObjectReader} and {@link DiffFormatter} for all the commits it diffs, so no
+ * reader or inflater state is shared between threads and none is rebuilt per commit. Every diff runs under
+ * a CPU permit.
+ */
+public final class CommitDiffIndex {
+
+    public static final String SYS_DIFF_WORKERS = "SYS_DIFF_WORKERS";
+
+    private final Repository repository;
+    private final AnalysisStore store;
+    /**
+     * commit -> touched path -> {added, deleted}
+     */
+    private final Map<ObjectId, Map<String, int[]>> diffs = new ConcurrentHashMap<>();
+
+    public CommitDiffIndex(@NotNull Repository repository, @Nullable AnalysisStore store) {
+        this.repository = repository;
+        this.store = store;
+    }
+
+    /**
+     * Diff all the commits in parallel
+     *
+     * @param commits the commits to index
+     * @return this index
+     */
+    public @NotNull CommitDiffIndex build(@NotNull Collection<RevCommit> commits) {
+        long start = System.currentTimeMillis();
+        List<RevCommit> toDiff = commits.stream().filter(commit -> !diffs.containsKey(commit)).distinct().toList();
+        int workers = Math.min(Math.max(1, SysConfig.getInt(SYS_DIFF_WORKERS, Scheduler.cpuPermits())),
+                Math.max(1, toDiff.size()));
+        AtomicInteger next = new AtomicInteger();
+        ExecutorService pool = Scheduler.newExecutor("commit-diff");
+        try {
+            List<Future<Void>> tasks = new ArrayList<>(workers);
+            for (int i = 0; i < workers; i++) {
+                tasks.add(pool.submit(() -> {
+                    try (Differ differ = new Differ()) {
+                        int index;
+                        while ((index = next.getAndIncrement()) < toDiff.size()) {
+                            RevCommit commit = toDiff.get(index);
+                            Scheduler.cpu(() -> get(commit, differ));
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<Void> task : tasks) {
+                task.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UncheckedIOException(new InterruptedIOException("commit diff index interrupted"));
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UncheckedIOException uncheckedIOException) {
+                throw uncheckedIOException;
+            }
+            throw new UncheckedIOException(new IOException(e.getCause()));
+        } finally {
+            pool.shutdownNow();
+        }
+        String msg = "commit diff index: commits=" + diffs.size() + " diffed=" + toDiff.size() + " workers=" +
+                workers + " took=" + ((System.currentTimeMillis() - start) / 1e3) + "s";
+        SeLogger.getInstance().getLogger().info(msg);
+        return this;
+    }
+
+    /**
+     * @param commit the commit
+     * @return touched path -> {added, deleted} lines, empty for the root commit
+     */
+    public @NotNull Map<String, int[]> get(@NotNull RevCommit commit) {
+        Map<String, int[]> stats = diffs.get(commit);
+        if (stats != null) {
+            return stats;
+        }
+        try (Differ differ = new Differ()) {
+            return get(commit, differ);
+        }
+    }
+
+    private @NotNull Map<String, int[]> get(@NotNull RevCommit commit, @NotNull Differ differ) {
+        Map<String, int[]> stats = diffs.get(commit);
+        if (stats != null) {
+            return stats;
+        }
+        stats = store != null ? store.getDiff(commit) : null;
+        if (stats == null) {
+            try {
+                stats = Collections.unmodifiableMap(differ.diff(commit));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (store != null && commit.getParentCount() > 0) {
+                store.putDiff(commit, stats);
+            }
+        } else {
+            stats = Collections.unmodifiableMap(stats);
+        }
+        Map<String, int[]> previous = diffs.putIfAbsent(commit.copy(), stats);
+        return previous != null ? previous : stats;
+    }
+
+    /**
+     * @param commit the commit
+     * @return the java files touched by the commit, in diff order
+     */
+    public @NotNull List<String> touchedPaths(@NotNull RevCommit commit) {
+        return List.copyOf(get(commit).keySet());
+    }
+
+    /**
+     * Reader and formatter of one worker
+     */
+    private final class Differ implements AutoCloseable {
+
+        private final ObjectReader reader = repository.newObjectReader();
+        private final DiffFormatter diffFormatter = new DiffFormatter(DisabledOutputStream.INSTANCE);
+
+        private Differ() {
+            diffFormatter.setReader(reader, repository.getConfig());
+            diffFormatter.setDiffComparator(RawTextComparator.DEFAULT);
+        }
+
+        private @NotNull Map<String, int[]> diff(@NotNull RevCommit commit) throws IOException {
+            Map<String, int[]> stats = new LinkedHashMap<>();
+            if (commit.getParentCount() == 0) {
+                return stats;
+            }
+            List<DiffEntry> diffEntries = diffFormatter.scan(commit.getParent(0).getTree(), commit.getTree());
+            for (DiffEntry diffEntry : diffEntries) {
+                if (isAnalyzedClass(diffEntry.getNewPath())) {
+                    EditList edits = diffFormatter.toFileHeader(diffEntry).toEditList();
+                    stats.put(diffEntry.getNewPath(), new int[]{addedLines(edits), deletedLines(edits)});
+                }
+            }
+            return stats;
+        }
+
+        @Override
+        public void close() {
+            diffFormatter.close();
+            reader.close();
+        }
+    }
+
+    private static boolean isAnalyzedClass(@NotNull String path) {
+        return path.contains(JAVA_EXTENTION) && !path.contains("/test/");
+    }
+
+    private static int addedLines(@NotNull EditList edits) {
+        int addedLines = 0;
+        for (Edit edit : edits) {
+            addedLines += edit.getEndB() - edit.getBeginB();
+        }
+        return addedLines;
+    }
+
+    private static int deletedLines(@NotNull EditList edits) {
+        int deletedLines = 0;
+        for (Edit edit : edits) {
+            deletedLines += edit.getEndA() - edit.getBeginA();
+        }
+        return deletedLines;
+    }
+}
@@ -0,0 +1,121 @@
+package it.torvergata.ahmed.utilities;
+
+import it.torvergata.ahmed.model.JavaClass;
+import it.torvergata.ahmed.model.LOCMetrics;
+import it.torvergata.ahmed.model.Metrics;
+import org.jetbrains.annotations.NotNull;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instances;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * In-memory walk-forward datasets handed from the preprocessing to the classification: the metrics of
+ * every class become one feature row once, the training and testing sets of the steps are views over
+ * those rows (row indices plus the labels of the step) turned into weka {@link Instances} only when they
+ * are classified. The attributes and the values follow the rows of the arff files written by {@link Sink}.
+ */
+public final class DatasetStore {
+
+    private static final String[] FEATURES = {"SIZE", "LOC_ADDED", "LOC_ADDED_AVG", "LOC_ADDED_MAX",
+            "LOC_REMOVED", "LOC_REMOVED_AVG", "LOC_REMOVED_MAX", "CHURN", "CHURN_AVG", "CHURN_MAX",
+            "LOC_TOUCHED", "LOC_TOUCHED_AVG", "LOC_TOUCHED_MAX", "NUMBER_OF_REVISIONS", "NUMBER_OF_DEFECT_FIXES",
+            "NUMBER_OF_AUTHORS"};
+    private static final String CLASS_ATTRIBUTE = "IS_BUGGY";
+    private static final int YES = 0;
+    private static final int NO = 1;
+
+    private final ArrayList<Attribute> attributes;
+    /**
+     * row i holds the features of the class at position i of the list the store was built from
+     */
+    private final double[][] rows;
+
+    /**
+     * Training and testing set of one walk-forward step
+     */
+    public record Step(View training, View testing) {
+    }
+
+    /**
+     * @param classes the classes, their positions are the row indices of the views
+     */
+    public DatasetStore(@NotNull List<JavaClass> classes) {
+        this.attributes = new ArrayList<>(FEATURES.length + 1);
+        for (String feature : FEATURES) {
+            attributes.add(new Attribute(feature));
+        }
+        attributes.add(new Attribute(CLASS_ATTRIBUTE, List.of("YES", "NO")));
+        this.rows = new double[classes.size()][];
+        for (int i = 0; i < classes.size(); i++) {
+            rows[i] = features(classes.get(i).getMetrics());
+        }
+    }
+
+    private static double @NotNull [] features(@NotNull Metrics metrics) {
+        double[] features = new double[FEATURES.length];
+        int i = 0;
+        features[i++] = metrics.getSize();
+        i = putLOC(features, i, metrics.getAddedLOCMetrics());
+        i = putLOC(features, i, metrics.getRemovedLOCMetrics());
+        // same order as the data rows of the files: touched before churn
+        i = putLOC(features, i, metrics.getTouchedLOCMetrics());
+        i = putLOC(features, i, metrics.getChurnMetrics());
+        features[i++] = metrics.getNumberOfRevisions();
+        features[i++] = metrics.getNumberOfDefectFixes();
+        features[i] = metrics.getNumberOfAuthors();
+        return features;
+    }
+
+    private static int putLOC(double @NotNull [] features, int from, @NotNull LOCMetrics locMetrics) {
+        features[from] = locMetrics.getVal();
+        features[from + 1] = locMetrics.getAvgVal();
+        features[from + 2] = locMetrics.getMaxVal();
+        return from + 3;
+    }
+
+    /**
+     * @param relation the name of the dataset
+     * @param rowIds   the rows of the dataset, in order
+     * @param buggy    bit set for the buggy rows, indexed by row
+     * @return a view over the rows
+     */
+    public @NotNull View view(@NotNull String relation, int @NotNull [] rowIds, @NotNull BitSet buggy) {
+        return new View(relation, rowIds, buggy);
+    }
+
+    public final class View {
+
+        private final String relation;
+        private final int[] rowIds;
+        private final BitSet buggy;
+
+        private View(String relation, int[] rowIds, BitSet buggy) {
+            this.relation = relation;
+            this.rowIds = rowIds;
+            this.buggy = buggy;
+        }
+
+        public int size() {
+            return rowIds.length;
+        }
+
+        /**
+         * @return a new dataset with the class attribute set, the caller can modify it freely
+         */
+        public @NotNull Instances toInstances() {
+            Instances instances = new Instances(relation, attributes, rowIds.length);
+            instances.setClassIndex(FEATURES.length);
+            for (int rowId : rowIds) {
+                double[] values = new double[FEATURES.length + 1];
+                System.arraycopy(rows[rowId], 0, values, 0, FEATURES.length);
+                values[FEATURES.length] = buggy.get(rowId) ? YES : NO;
+                instances.add(new DenseInstance(1.0, values));
+            }
+            return instances;
+        }
+    }
+}
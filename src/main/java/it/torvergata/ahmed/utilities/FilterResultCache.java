@@ -0,0 +1,104 @@
+package it.torvergata.ahmed.utilities;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.OptionHandler;
+import weka.core.Utils;
+import weka.filters.Filter;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of the filtered training (and testing) sets keyed by training set fingerprint and filter
+ * configuration: the feature selection and the balancing of a training window run once and their output
+ * is handed to every base learner. A filtered set gets the fingerprint of its source combined with the
+ * filter configuration, so chained filters are keyed without hashing their output again.
+ * <p>
+ * The first caller of a key runs the filter, the concurrent callers of the same key wait for its result.
+ * The filtered sets are shared: the callers must not modify them.
+ */
+public class FilterResultCache {
+
+    private final Map<Key, FutureTask<Filtered>> entries = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong(0);
+    private final AtomicLong misses = new AtomicLong(0);
+
+    private record Key(long training, String filter) {
+    }
+
+    /**
+     * @param training    the filtered training set
+     * @param testing     the filtered testing set, null when the filter leaves it unchanged
+     * @param fingerprint the fingerprint of the filtered training set
+     */
+    public record Filtered(Instances training, @Nullable Instances testing, long fingerprint) {
+    }
+
+    /**
+     * @param data a dataset
+     * @return a fingerprint of its header, values and weights
+     */
+    public static long fingerprint(@NotNull Instances data) {
+        long hash = 31L * data.stringFreeStructure().toString().hashCode() + data.classIndex();
+        for (Instance instance : data) {
+            hash = 31 * hash + Double.hashCode(instance.weight());
+            for (int i = 0; i < instance.numAttributes(); i++) {
+                hash = 31 * hash + Double.hashCode(instance.value(i));
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * @param trainingFingerprint the fingerprint of the training set
+     * @param filter              the configured filter, not yet used
+     * @param training            the training set, the filter is fitted on it
+     * @param testing             the testing set to filter too, null to leave it out
+     * @return the filtered sets
+     */
+    public @NotNull Filtered get(long trainingFingerprint, @NotNull Filter filter, @NotNull Instances training,
+                                 @Nullable Instances testing) throws Exception {
+        String config = configuration(filter) + (testing != null ? " +testing" : "");
+        Key key = new Key(trainingFingerprint, config);
+        FutureTask<Filtered> task = new FutureTask<>(() -> {
+            filter.setInputFormat(training);
+            Instances filteredTraining = Filter.useFilter(training, filter);
+            Instances filteredTesting = testing != null ? Filter.useFilter(testing, filter) : null;
+            return new Filtered(filteredTraining, filteredTesting, 31 * trainingFingerprint + config.hashCode());
+        });
+        FutureTask<Filtered> previous = entries.putIfAbsent(key, task);
+        if (previous != null) {
+            hits.incrementAndGet();
+            task = previous;
+        } else {
+            misses.incrementAndGet();
+            task.run();
+        }
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private static @NotNull String configuration(@NotNull Filter filter) {
+        String options = filter instanceof OptionHandler optionHandler ?
+                Utils.joinOptions(optionHandler.getOptions()) : "";
+        return filter.getClass().getName() + " " + options;
+    }
+
+    public @NotNull String getStats() {
+        long h = hits.get();
+        long m = misses.get();
+        return String.format("hits=%d misses=%d hit-ratio=%.2f%%", h, m, 100.0 * h / Math.max(1, h + m));
+    }
+}
@@ -0,0 +1,203 @@
+package it.torvergata.ahmed.utilities;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Client of the JIRA REST API on {@link HttpClient}: the responses are parsed while they stream in, and
+ * the pages of a search after the first one, which gives the total, are fetched at the same time on
+ * virtual threads, at most {@code SYS_JIRA_CONCURRENCY} (default 4) requests in flight per client.
+ * {@code SYS_JIRA_BASE_URL} (default {@value #DEFAULT_BASE_URL}) points the client to another server,
+ * e.g. the {@code JiraStubServer} of the tests.
+ * <p>
+ * With a {@link JiraResponseCache} a fresh cached response costs no request, a stale one a conditional
+ * request, and in offline mode the client never goes to the network.
+ */
+public class JiraClient {
+
+    public static final String SYS_JIRA_BASE_URL = "SYS_JIRA_BASE_URL";
+    public static final String SYS_JIRA_CONCURRENCY = "SYS_JIRA_CONCURRENCY";
+    public static final String DEFAULT_BASE_URL = "https://issues.apache.org/jira";
+    public static final int PAGE_SIZE = 1000;
+    private static final int DEFAULT_CONCURRENCY = 4;
+    private static final Duration TIMEOUT = Duration.ofMinutes(2);
+
+    private static final HttpClient HTTP = HttpClient.newBuilder()
+            .executor(Executors.newVirtualThreadPerTaskExecutor())
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .connectTimeout(Duration.ofSeconds(30))
+            .build();
+
+    private final String baseUrl;
+    private final Semaphore inFlight;
+    private final JiraResponseCache cache;
+
+    /**
+     * A client configured by the SYS_* settings, on the cache of the process
+     */
+    public JiraClient() {
+        this(baseUrl(), Math.max(1, SysConfig.getInt(SYS_JIRA_CONCURRENCY, DEFAULT_CONCURRENCY)),
+                JiraResponseCache.shared());
+    }
+
+    /**
+     * @param baseUrl     the JIRA root, before {@code /rest}
+     * @param concurrency the requests in flight at most
+     */
+    public JiraClient(@NotNull String baseUrl, int concurrency) {
+        this(baseUrl, concurrency, null);
+    }
+
+    /**
+     * @param baseUrl     the JIRA root, before {@code /rest}
+     * @param concurrency the requests in flight at most
+     * @param cache       the responses cache, null to always download
+     */
+    public JiraClient(@NotNull String baseUrl, int concurrency, @Nullable JiraResponseCache cache) {
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+        this.inFlight = new Semaphore(Math.max(1, concurrency), true);
+        this.cache = cache;
+    }
+
+    private static @NotNull String baseUrl() {
+        String configured = SysConfig.get(SYS_JIRA_BASE_URL);
+        return configured == null || configured.isBlank() ? DEFAULT_BASE_URL : configured;
+    }
+
+    /**
+     * @param projectKey the JIRA project
+     * @return the project, with its versions
+     */
+    public @NotNull JSONObject project(@NotNull String projectKey) throws IOException {
+        return get("/rest/api/latest/project/" + encode(projectKey));
+    }
+
+    /**
+     * Run a search and download all its pages
+     *
+     * @param jql    the query
+     * @param fields the fields of the issues, comma separated
+     * @return the result pages in order, each one with its {@code issues}
+     */
+    public @NotNull List<JSONObject> search(@NotNull String jql, @NotNull String fields) throws IOException {
+        String query = "/rest/api/2/search?jql=" + encode(jql) + "&fields=" + encode(fields) + "&maxResults=" +
+                PAGE_SIZE + "&startAt=";
+        JSONObject first = get(query + 0);
+        List<JSONObject> pages = new ArrayList<>();
+        pages.add(first);
+        int total = first.getInt("total");
+        // the server can serve less than asked
+        int pageSize = Math.max(1, first.optInt("maxResults", first.getJSONArray("issues").length()));
+        if (pageSize >= total) {
+            return pages;
+        }
+        List<Future<JSONObject>> next = new ArrayList<>();
+        try (ExecutorService executor = Scheduler.newExecutor("jira-search")) {
+            for (int startAt = pageSize; startAt < total; startAt += pageSize) {
+                String url = query + startAt;
+                next.add(executor.submit(() -> get(url)));
+            }
+        }
+        for (Future<JSONObject> page : next) {
+            try {
+                pages.add(page.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("jira search interrupted", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException ioException) {
+                    throw ioException;
+                }
+                throw new IOException(e.getCause());
+            }
+        }
+        return pages;
+    }
+
+    /**
+     * @param pathAndQuery the resource after the base url
+     * @return the json response, parsed while it is read
+     */
+    public @NotNull JSONObject get(@NotNull String pathAndQuery) throws IOException {
+        String url = baseUrl + pathAndQuery;
+        JiraResponseCache.Entry cached = cache != null ? cache.lookup(url) : null;
+        if (cached != null && (cache.isOffline() || cache.isFresh(cached))) {
+            return parse(url, cached.body());
+        }
+        if (cache != null && cache.isOffline()) {
+            throw new IOException("offline: GET " + url + " is not cached");
+        }
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(url)).timeout(TIMEOUT)
+                .header("Accept", "application/json").GET();
+        if (cached != null && cached.etag() != null) {
+            request.header("If-None-Match", cached.etag());
+        }
+        if (cached != null && cached.lastModified() != null) {
+            request.header("If-Modified-Since", cached.lastModified());
+        }
+        inFlight.acquireUninterruptibly();
+        try {
+            HttpResponse<InputStream> response = HTTP.send(request.build(),
+                    HttpResponse.BodyHandlers.ofInputStream());
+            try (InputStream body = response.body()) {
+                if (response.statusCode() == 304 && cached != null) {
+                    return parse(url, cache.touch(url, cached).body());
+                }
+                if (response.statusCode() != 200) {
+                    throw new IOException("GET " + url + " returned " + response.statusCode());
+                }
+                if (cache == null) {
+                    return parse(url, body);
+                }
+                JiraResponseCache.Entry stored = cache.store(url, body,
+                        response.headers().firstValue("ETag").orElse(null),
+                        response.headers().firstValue("Last-Modified").orElse(null));
+                return parse(url, stored.body());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("GET " + url + " interrupted", e);
+        } finally {
+            inFlight.release();
+        }
+    }
+
+    private static @NotNull JSONObject parse(@NotNull String url, byte @NotNull [] body) throws IOException {
+        return parse(url, new ByteArrayInputStream(body));
+    }
+
+    private static @NotNull JSONObject parse(@NotNull String url, @NotNull InputStream body) throws IOException {
+        try (Reader reader = new InputStreamReader(body, StandardCharsets.UTF_8)) {
+            return new JSONObject(new JSONTokener(reader));
+        } catch (JSONException e) {
+            throw new IOException("GET " + url + " returned invalid json: " + e.getMessage(), e);
+        }
+    }
+
+    private static @NotNull String encode(@NotNull String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+}
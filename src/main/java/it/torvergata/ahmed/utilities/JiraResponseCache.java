@@ -0,0 +1,202 @@
+package it.torvergata.ahmed.utilities;
+
+import it.torvergata.ahmed.logging.SeLogger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HexFormat;
+
+/**
+ * Persistent cache of the JIRA responses under {@code .temp/jira}, keyed by url: each response is saved
+ * as {@code <sha-256 of the url>.cache}, a one line json header holding its url, ETag, Last-Modified and
+ * download time followed by the body. A response younger than {@code SYS_JIRA_CACHE_TTL_MINUTES} (default
+ * one day) is served without network, an older one is revalidated with If-None-Match / If-Modified-Since
+ * and served again on 304. With {@code SYS_JIRA_OFFLINE=true} the responses are served only from the cache, whatever their
+ * age, and a missing one is an error.
+ * <p>
+ * Header and body are replaced together by one atomic move and read together in one go, so concurrent
+ * clients and pipelines can share the directory: a body is never paired with the validators of another.
+ */
+public class JiraResponseCache {
+
+    public static final String SYS_JIRA_CACHE_TTL_MINUTES = "SYS_JIRA_CACHE_TTL_MINUTES";
+    public static final String SYS_JIRA_OFFLINE = "SYS_JIRA_OFFLINE";
+    public static final Path DEFAULT_DIR = Path.of(".temp", "jira");
+    private static final int DEFAULT_TTL_MINUTES = 24 * 60;
+    private static final String URL = "url";
+    private static final String ETAG = "etag";
+    private static final String LAST_MODIFIED = "lastModified";
+    private static final String FETCHED_AT = "fetchedAt";
+    private static final String EXTENSION = ".cache";
+
+    private static JiraResponseCache shared;
+
+    private final Path dir;
+    private final Duration ttl;
+    private final boolean offline;
+
+    /**
+     * A cached response
+     *
+     * @param body         the response body
+     * @param etag         the ETag of the response, null when the server sent none
+     * @param lastModified the Last-Modified of the response, null when the server sent none
+     * @param fetchedAt    when the response was downloaded or last revalidated, epoch millis
+     */
+    @SuppressWarnings("java:S6218")
+    public record Entry(byte[] body, @Nullable String etag, @Nullable String lastModified, long fetchedAt) {
+    }
+
+    /**
+     * @param dir     the cache directory
+     * @param ttl     how long a response is served without revalidation
+     * @param offline serve only from the cache
+     */
+    public JiraResponseCache(@NotNull Path dir, @NotNull Duration ttl, boolean offline) {
+        this.dir = dir;
+        this.ttl = ttl;
+        this.offline = offline;
+    }
+
+    /**
+     * @return the cache of the process in {@link #DEFAULT_DIR}, configured by the SYS_* settings
+     */
+    public static synchronized @NotNull JiraResponseCache shared() {
+        if (shared == null) {
+            shared = new JiraResponseCache(DEFAULT_DIR,
+                    Duration.ofMinutes(Math.max(0, SysConfig.getInt(SYS_JIRA_CACHE_TTL_MINUTES, DEFAULT_TTL_MINUTES))),
+                    Boolean.parseBoolean(SysConfig.get(SYS_JIRA_OFFLINE)));
+        }
+        return shared;
+    }
+
+    public boolean isOffline() {
+        return offline;
+    }
+
+    /**
+     * @param entry a cached response
+     * @return true when it can be served without revalidation
+     */
+    public boolean isFresh(@NotNull Entry entry) {
+        return System.currentTimeMillis() - entry.fetchedAt() < ttl.toMillis();
+    }
+
+    /**
+     * @param url the requested url
+     * @return the cached response, null when the url was never saved or its files are unreadable
+     */
+    public @Nullable Entry lookup(@NotNull String url) {
+        Path file = dir.resolve(key(url) + EXTENSION);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try {
+            byte[] bytes = Files.readAllBytes(file);
+            int newline = indexOfNewline(bytes);
+            if (newline < 0) {
+                throw new IOException("no header");
+            }
+            JSONObject stored = new JSONObject(new String(bytes, 0, newline, StandardCharsets.UTF_8));
+            if (!url.equals(stored.optString(URL))) {
+                return null;
+            }
+            return new Entry(Arrays.copyOfRange(bytes, newline + 1, bytes.length), stored.optString(ETAG, null),
+                    stored.optString(LAST_MODIFIED, null), stored.getLong(FETCHED_AT));
+        } catch (IOException | JSONException e) {
+            SeLogger.getInstance().getLogger().warning("jira cache entry of " + url + " unreadable: " +
+                    e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Save a downloaded response
+     *
+     * @param url          the requested url
+     * @param body         the response body, read to the end
+     * @param etag         the ETag of the response
+     * @param lastModified the Last-Modified of the response
+     * @return the saved entry
+     */
+    public @NotNull Entry store(@NotNull String url, @NotNull InputStream body, @Nullable String etag,
+                                @Nullable String lastModified) throws IOException {
+        Entry entry = new Entry(body.readAllBytes(), etag, lastModified, System.currentTimeMillis());
+        write(url, entry);
+        return entry;
+    }
+
+    /**
+     * Mark a response revalidated by the server
+     *
+     * @param url   the requested url
+     * @param entry the cached response, still valid
+     * @return the entry with the new validation time
+     */
+    public @NotNull Entry touch(@NotNull String url, @NotNull Entry entry) throws IOException {
+        Entry touched = new Entry(entry.body(), entry.etag(), entry.lastModified(), System.currentTimeMillis());
+        write(url, touched);
+        return touched;
+    }
+
+    /**
+     * Replace the file of a url with the header and the body of an entry in one atomic move
+     */
+    private void write(@NotNull String url, @NotNull Entry entry) throws IOException {
+        String key = key(url);
+        JSONObject meta = new JSONObject().put(URL, url).put(FETCHED_AT, entry.fetchedAt());
+        if (entry.etag() != null) {
+            meta.put(ETAG, entry.etag());
+        }
+        if (entry.lastModified() != null) {
+            meta.put(LAST_MODIFIED, entry.lastModified());
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(entry.body().length + 256);
+        bytes.writeBytes(meta.toString().getBytes(StandardCharsets.UTF_8));
+        bytes.write('\n');
+        bytes.writeBytes(entry.body());
+        Files.createDirectories(dir);
+        Path temp = Files.createTempFile(dir, key, ".tmp");
+        try {
+            Files.write(temp, bytes.toByteArray());
+            Files.move(temp, dir.resolve(key + EXTENSION), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * @return the end of the header, the json of the header escapes its own newlines
+     */
+    private static int indexOfNewline(byte @NotNull [] bytes) {
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static @NotNull String key(@NotNull String url) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256")
+                    .digest(url.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package it.torvergata.ahmed.utilities;
+
+import org.eclipse.jgit.diff.DiffAlgorithm;
+import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.diff.EditList;
+import org.eclipse.jgit.diff.Sequence;
+import org.eclipse.jgit.diff.SequenceComparator;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Lines of a method body split and hashed once, compared by JGit's histogram diff: the churn of a method
+ * between two commits counts the lines of the edit script, so moved and duplicated lines are counted
+ * where a plain membership test misses them.
+ */
+public final class LineSequence extends Sequence {
+
+    private static final DiffAlgorithm ALGORITHM =
+            DiffAlgorithm.getAlgorithm(DiffAlgorithm.SupportedAlgorithm.HISTOGRAM);
+
+    private static final SequenceComparator<LineSequence> COMPARATOR = new SequenceComparator<>() {
+        @Override
+        public boolean equals(LineSequence a, int ai, LineSequence b, int bi) {
+            return a.hashes[ai] == b.hashes[bi] && a.lines[ai].equals(b.lines[bi]);
+        }
+
+        @Override
+        public int hash(LineSequence seq, int ptr) {
+            return seq.hashes[ptr];
+        }
+    };
+
+    private final String[] lines;
+    private final int[] hashes;
+
+    private LineSequence(String[] lines) {
+        this.lines = lines;
+        this.hashes = new int[lines.length];
+        for (int i = 0; i < lines.length; i++) {
+            hashes[i] = lines[i].hashCode();
+        }
+    }
+
+    /**
+     * @param body a method body
+     * @return its lines
+     */
+    public static @NotNull LineSequence of(@NotNull String body) {
+        return new LineSequence(body.split("\n"));
+    }
+
+    /**
+     * @param oldLines the lines before the change
+     * @param newLines the lines after the change
+     * @return {added, removed} lines
+     */
+    public static int @NotNull [] churn(@NotNull LineSequence oldLines, @NotNull LineSequence newLines) {
+        EditList edits = ALGORITHM.diff(COMPARATOR, oldLines, newLines);
+        int added = 0;
+        int removed = 0;
+        for (Edit edit : edits) {
+            added += edit.getLengthB();
+            removed += edit.getLengthA();
+        }
+        return new int[]{added, removed};
+    }
+
+    @Override
+    public int size() {
+        return lines.length;
+    }
+}
@@ -0,0 +1,84 @@
+package it.torvergata.ahmed.utilities;
+
+import it.torvergata.ahmed.model.MethodMetrics;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Static interval tree over the {@code [beginLine, endLine]} ranges of the methods of a class.
+ * <p>
+ * The methods are sorted by begin line and seen as an implicit balanced tree (the middle of each range
+ * is the root of the range), every node keeps the max end line of its subtree: a line query skips the
+ * subtrees ending before it and stops at the nodes beginning after it, so it costs O(log m + k) with
+ * k the methods containing the line (nested and one-line methods can overlap).
+ */
+public final class MethodIntervalIndex {
+
+    private final MethodMetrics[] methods;
+    private final int[] begins;
+    private final int[] ends;
+    private final int[] maxEnds;
+
+    private MethodIntervalIndex(MethodMetrics[] methods) {
+        this.methods = methods;
+        this.begins = new int[methods.length];
+        this.ends = new int[methods.length];
+        this.maxEnds = new int[methods.length];
+        for (int i = 0; i < methods.length; i++) {
+            begins[i] = methods[i].getBeginLine();
+            ends[i] = methods[i].getEndLine();
+        }
+        buildMaxEnds(0, methods.length - 1);
+    }
+
+    /**
+     * @param methodMetrics the methods of a class
+     * @return the index of their line ranges
+     */
+    public static @NotNull MethodIntervalIndex of(@NotNull Collection<MethodMetrics> methodMetrics) {
+        MethodMetrics[] sorted = methodMetrics.toArray(new MethodMetrics[0]);
+        Arrays.sort(sorted, Comparator.comparingInt(MethodMetrics::getBeginLine));
+        return new MethodIntervalIndex(sorted);
+    }
+
+    private int buildMaxEnds(int lo, int hi) {
+        if (lo > hi) {
+            return Integer.MIN_VALUE;
+        }
+        int mid = (lo + hi) >>> 1;
+        maxEnds[mid] = Math.max(ends[mid], Math.max(buildMaxEnds(lo, mid - 1), buildMaxEnds(mid + 1, hi)));
+        return maxEnds[mid];
+    }
+
+    /**
+     * @param line   a line of the class
+     * @param action called for every method whose range contains the line
+     */
+    public void forEachContaining(int line, @NotNull Consumer<MethodMetrics> action) {
+        visit(0, methods.length - 1, line, action);
+    }
+
+    private void visit(int lo, int hi, int line, Consumer<MethodMetrics> action) {
+        if (lo > hi) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        if (maxEnds[mid] < line) {
+            return;
+        }
+        visit(lo, mid - 1, line, action);
+        if (begins[mid] > line) {
+            return;
+        }
+        if (ends[mid] >= line) {
+            action.accept(methods[mid]);
+        }
+        visit(mid + 1, hi, line, action);
+    }
+
+    public int size() {
+        return methods.length;
+    }
+}
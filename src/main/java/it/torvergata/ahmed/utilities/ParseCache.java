@@ -0,0 +1,107 @@
+package it.torvergata.ahmed.utilities;
+
+import it.torvergata.ahmed.model.ParsedSource;
+import org.eclipse.jgit.lib.ObjectId;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of the parse results keyed by git blob id: a file not changed between two releases (or two
+ * commits) has the same blob, so it is parsed once. The cache is bounded, the least recently used
+ * entry is evicted first. On a memory miss the persistent {@link AnalysisStore} is checked before parsing.
+ */
+public class ParseCache {
+
+    public static final String SYS_PARSE_CACHE_SIZE = "SYS_PARSE_CACHE_SIZE";
+    private static final int DEFAULT_SIZE = 20_000;
+
+    /**
+     * Source text of a blob, loaded only on cache miss
+     */
+    @FunctionalInterface
+    public interface SourceLoader {
+        String load() throws IOException;
+    }
+
+    private final Map<ObjectId, ParsedSource> entries;
+    private final AnalysisStore store;
+    private final AtomicLong hits = new AtomicLong(0);
+    private final AtomicLong diskHits = new AtomicLong(0);
+    private final AtomicLong misses = new AtomicLong(0);
+
+    /**
+     * @param store the persistent store behind the memory cache, can be null
+     */
+    public ParseCache(@Nullable AnalysisStore store) {
+        this(SysConfig.getInt(SYS_PARSE_CACHE_SIZE, DEFAULT_SIZE), store);
+    }
+
+    public ParseCache(int maxEntries, @Nullable AnalysisStore store) {
+        this.store = store;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ObjectId, ParsedSource> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @param blobId the blob id, when null the source is parsed without caching
+     * @param loader the source text of the blob
+     * @return the parse result
+     */
+    public @NotNull ParsedSource get(@Nullable ObjectId blobId, @NotNull SourceLoader loader) throws IOException {
+        if (blobId == null) {
+            misses.incrementAndGet();
+            return ParsedSource.parse(loader.load());
+        }
+        ParsedSource parsed;
+        synchronized (entries) {
+            parsed = entries.get(blobId);
+        }
+        if (parsed != null) {
+            hits.incrementAndGet();
+            return parsed;
+        }
+        parsed = store != null ? store.getParsed(blobId) : null;
+        if (parsed != null) {
+            diskHits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+            parsed = ParsedSource.parse(loader.load());
+            if (store != null) {
+                store.putParsed(blobId, parsed);
+            }
+        }
+        synchronized (entries) {
+            ParsedSource concurrent = entries.putIfAbsent(blobId.copy(), parsed);
+            return concurrent != null ? concurrent : parsed;
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getDiskHits() {
+        return diskHits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public @NotNull String getStats() {
+        long h = hits.get();
+        long d = diskHits.get();
+        long m = misses.get();
+        return String.format("hits=%d disk-hits=%d misses=%d hit-ratio=%.2f%%", h, d, m,
+                100.0 * (h + d) / Math.max(1, h + d + m));
+    }
+}
@@ -0,0 +1,216 @@
+package it.torvergata.ahmed.utilities;
+
+import it.torvergata.ahmed.logging.SeLogger;
+import org.eclipse.jgit.lib.ObjectId;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only binary file of records keyed by git object id.
+ * <p>
+ * Layout: header {@code [magic][version]} followed by records {@code [id][length][payload][crc32]}.
+ * Only the offsets are kept in memory, payloads are read on demand. A file with a different magic or
+ * version is rebuilt from scratch, a corrupt record truncates the file at the last good record.
+ * A record appended again for the same key replaces the previous one, see {@link #remove}.
+ */
+public class RecordFile implements Closeable {
+
+    private static final int MAGIC = 0x53454D41; // "SEMA"
+    private static final int HEADER_SIZE = 2 * Integer.BYTES;
+    private static final int ID_SIZE = 20;
+    private static final int MAX_PAYLOAD = 64 * 1024 * 1024;
+
+    private final Path path;
+    private final int version;
+    private final FileChannel channel;
+    private final Map<ObjectId, Long> offsets = new HashMap<>();
+    private long end;
+
+    /**
+     * @param path    the file
+     * @param version the format version of the payloads, a file with another version is discarded
+     */
+    public RecordFile(@NotNull Path path, int version) throws IOException {
+        this.path = path;
+        this.version = version;
+        Files.createDirectories(path.getParent());
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        if (!checkHeader()) {
+            channel.truncate(0);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(version).flip();
+            writeFully(header, 0);
+            end = HEADER_SIZE;
+            return;
+        }
+        scan();
+    }
+
+    private boolean checkHeader() throws IOException {
+        if (channel.size() == 0) {
+            return false;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        if (channel.size() < HEADER_SIZE || !readFully(header, 0)) {
+            warn("truncated header, rebuilding");
+            return false;
+        }
+        header.flip();
+        int magic = header.getInt();
+        int fileVersion = header.getInt();
+        if (magic != MAGIC) {
+            warn("bad magic, rebuilding");
+            return false;
+        }
+        if (fileVersion != version) {
+            warn("version " + fileVersion + " != " + version + ", rebuilding");
+            return false;
+        }
+        return true;
+    }
+
+    private void scan() throws IOException {
+        long position = HEADER_SIZE;
+        long size = channel.size();
+        ByteBuffer head = ByteBuffer.allocate(ID_SIZE + Integer.BYTES);
+        while (position < size) {
+            head.clear();
+            if (!readFully(head, position)) {
+                break;
+            }
+            head.flip();
+            byte[] raw = new byte[ID_SIZE];
+            head.get(raw);
+            int length = head.getInt();
+            if (length < 0 || length > MAX_PAYLOAD) {
+                break;
+            }
+            ByteBuffer body = ByteBuffer.allocate(length + Long.BYTES);
+            if (!readFully(body, position + ID_SIZE + Integer.BYTES)) {
+                break;
+            }
+            body.flip();
+            byte[] payload = new byte[length];
+            body.get(payload);
+            if (body.getLong() != crc(raw, payload)) {
+                break;
+            }
+            offsets.put(ObjectId.fromRaw(raw), position);
+            position += ID_SIZE + Integer.BYTES + length + Long.BYTES;
+        }
+        if (position < size) {
+            warn("corrupt record at offset " + position + ", dropping the tail");
+            channel.truncate(position);
+        }
+        end = position;
+    }
+
+    public synchronized boolean contains(@NotNull ObjectId id) {
+        return offsets.containsKey(id);
+    }
+
+    /**
+     * Forget a record whose payload cannot be decoded: the next {@link #put} appends a replacement,
+     * that the scan of the next open prefers because it comes later in the file
+     *
+     * @param id the key
+     */
+    public synchronized void remove(@NotNull ObjectId id) {
+        offsets.remove(id);
+    }
+
+    public synchronized int size() {
+        return offsets.size();
+    }
+
+    /**
+     * @param id the key
+     * @return the payload or null when missing
+     */
+    public @Nullable byte[] get(@NotNull ObjectId id) throws IOException {
+        Long offset;
+        synchronized (this) {
+            offset = offsets.get(id);
+        }
+        if (offset == null) {
+            return null;
+        }
+        ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+        if (!readFully(length, offset + ID_SIZE)) {
+            throw new EOFException(path + ": record out of file");
+        }
+        ByteBuffer payload = ByteBuffer.allocate(length.flip().getInt());
+        if (!readFully(payload, offset + ID_SIZE + Integer.BYTES)) {
+            throw new EOFException(path + ": record out of file");
+        }
+        return payload.array();
+    }
+
+    /**
+     * Append a record, nothing is written when the key is already present
+     *
+     * @param id      the key
+     * @param payload the value
+     */
+    public synchronized void put(@NotNull ObjectId id, byte @NotNull [] payload) throws IOException {
+        if (offsets.containsKey(id)) {
+            return;
+        }
+        byte[] raw = new byte[ID_SIZE];
+        id.copyRawTo(raw, 0);
+        ByteBuffer record = ByteBuffer.allocate(ID_SIZE + Integer.BYTES + payload.length + Long.BYTES)
+                .put(raw).putInt(payload.length).put(payload).putLong(crc(raw, payload)).flip();
+        writeFully(record, end);
+        offsets.put(id.copy(), end);
+        end += record.capacity();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.force(false);
+        channel.close();
+    }
+
+    private static long crc(byte[] raw, byte[] payload) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(raw);
+        crc32.update(payload);
+        return crc32.getValue();
+    }
+
+    private boolean readFully(@NotNull ByteBuffer buffer, long position) throws IOException {
+        long current = position;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, current);
+            if (read < 0) {
+                return false;
+            }
+            current += read;
+        }
+        return true;
+    }
+
+    private void writeFully(@NotNull ByteBuffer buffer, long position) throws IOException {
+        long current = position;
+        while (buffer.hasRemaining()) {
+            current += channel.write(buffer, current);
+        }
+    }
+
+    private void warn(String msg) {
+        String warning = "RecordFile " + path + ": " + msg;
+        SeLogger.getInstance().getLogger().warning(warning);
+    }
+}
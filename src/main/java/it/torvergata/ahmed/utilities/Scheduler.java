@@ -0,0 +1,186 @@
+package it.torvergata.ahmed.utilities;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Process-wide scheduler shared by all the projects of a run: the pipelines, their stages and their workers
+ * run on virtual threads, and the work is admitted by two fair semaphores:
+ * <ul>
+ *     <li>{@code SYS_IO_PERMITS} (default 4) for the network and repository bound work: JIRA, clone, commit
+ *     walk, snapshot reads</li>
+ *     <li>{@code SYS_CPU_PERMITS} (default all cores) for the compute bound work: parsing, diffs, history,
+ *     PMD, metrics, datasets, Weka</li>
+ * </ul>
+ * A thread waiting on a queue or on other tasks holds no permit, so the projects take turns on the cores in
+ * arrival order whatever phase they are in. A fan-out started by a thread that already holds a CPU permit
+ * runs inline on that permit: the permits are never exceeded and nested fan-outs cannot deadlock.
+ */
+public final class Scheduler {
+
+    public static final String SYS_CPU_PERMITS = "SYS_CPU_PERMITS";
+    public static final String SYS_IO_PERMITS = "SYS_IO_PERMITS";
+    private static final int DEFAULT_IO_PERMITS = 4;
+    /**
+     * chunks of a fan-out per CPU permit, to balance uneven items
+     */
+    private static final int CHUNKS_PER_PERMIT = 4;
+
+    private static final int CPU_PERMITS = Math.max(1, SysConfig.getInt(SYS_CPU_PERMITS,
+            Runtime.getRuntime().availableProcessors()));
+    private static final Semaphore CPU = new Semaphore(CPU_PERMITS, true);
+    private static final Semaphore IO = new Semaphore(Math.max(1, SysConfig.getInt(SYS_IO_PERMITS,
+            DEFAULT_IO_PERMITS)), true);
+    private static final ThreadLocal<Boolean> HOLDS_CPU = ThreadLocal.withInitial(() -> false);
+    private static final ThreadLocal<Boolean> HOLDS_IO = ThreadLocal.withInitial(() -> false);
+
+    private Scheduler() {
+        // this is a StaticUtils
+    }
+
+    /**
+     * Work run under a permit
+     */
+    @FunctionalInterface
+    public interface Work<T, E extends Exception> {
+        T call() throws E;
+    }
+
+    /**
+     * Work without result run under a permit
+     */
+    @FunctionalInterface
+    public interface Action<E extends Exception> {
+        void run() throws E;
+    }
+
+    /**
+     * @return the number of CPU permits, the useful parallelism of a fan-out
+     */
+    public static int cpuPermits() {
+        return CPU_PERMITS;
+    }
+
+    /**
+     * @param name the prefix of the thread names
+     * @return a new executor starting a virtual thread per task, closing it waits for the tasks
+     */
+    public static @NotNull ExecutorService newExecutor(@NotNull String name) {
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 0).factory());
+    }
+
+    public static <T, E extends Exception> T cpu(@NotNull Work<T, E> work) throws E {
+        return withPermit(CPU, HOLDS_CPU, work);
+    }
+
+    public static <E extends Exception> void cpu(@NotNull Action<E> action) throws E {
+        withPermit(CPU, HOLDS_CPU, () -> {
+            action.run();
+            return null;
+        });
+    }
+
+    public static <T, E extends Exception> T io(@NotNull Work<T, E> work) throws E {
+        return withPermit(IO, HOLDS_IO, work);
+    }
+
+    public static <E extends Exception> void io(@NotNull Action<E> action) throws E {
+        withPermit(IO, HOLDS_IO, () -> {
+            action.run();
+            return null;
+        });
+    }
+
+    private static <T, E extends Exception> T withPermit(@NotNull Semaphore permits,
+                                                         @NotNull ThreadLocal<Boolean> holds,
+                                                         @NotNull Work<T, E> work) throws E {
+        if (Boolean.TRUE.equals(holds.get())) {
+            return work.call();
+        }
+        permits.acquireUninterruptibly();
+        holds.set(true);
+        try {
+            return work.call();
+        } finally {
+            holds.set(false);
+            permits.release();
+        }
+    }
+
+    /**
+     * Run an action on every item, each chunk of items under a CPU permit
+     *
+     * @param items  the items
+     * @param action the action, it must be safe to run on different items at the same time
+     */
+    public static <T> void forEach(@NotNull List<T> items, @NotNull Consumer<? super T> action) {
+        collect(items, () -> null, (ignored, item) -> action.accept(item), (left, right) -> {
+        });
+    }
+
+    /**
+     * Mutable reduction of the items, each chunk of items into its own container under a CPU permit: the
+     * containers are then combined in item order by the calling thread
+     *
+     * @param items       the items
+     * @param supplier    a new container
+     * @param accumulator add an item to a container
+     * @param combiner    merge the second container into the first
+     * @return the result container
+     */
+    public static <T, R> R collect(@NotNull List<T> items, @NotNull Supplier<R> supplier,
+                                   @NotNull BiConsumer<R, ? super T> accumulator,
+                                   @NotNull BiConsumer<R, R> combiner) {
+        int chunks = Math.min(items.size(), CPU_PERMITS * CHUNKS_PER_PERMIT);
+        if (chunks <= 1 || CPU_PERMITS == 1 || Boolean.TRUE.equals(HOLDS_CPU.get())) {
+            return cpu(() -> accumulate(items, supplier, accumulator));
+        }
+        List<Future<R>> parts = new ArrayList<>(chunks);
+        try (ExecutorService executor = newExecutor("fan-out")) {
+            for (int chunk = 0; chunk < chunks; chunk++) {
+                List<T> part = items.subList(chunk * items.size() / chunks, (chunk + 1) * items.size() / chunks);
+                parts.add(executor.submit(() -> cpu(() -> accumulate(part, supplier, accumulator))));
+            }
+        }
+        R result = null;
+        for (Future<R> part : parts) {
+            if (part.state() == Future.State.FAILED) {
+                Throwable cause = part.exceptionNow();
+                if (cause instanceof RuntimeException runtimeException) {
+                    throw runtimeException;
+                }
+                if (cause instanceof Error error) {
+                    throw error;
+                }
+                throw new IllegalStateException(cause);
+            }
+            if (part.state() != Future.State.SUCCESS) {
+                throw new IllegalStateException("fan-out interrupted");
+            }
+            if (result == null) {
+                result = part.resultNow();
+            } else {
+                combiner.accept(result, part.resultNow());
+            }
+        }
+        return result;
+    }
+
+    private static <T, R> R accumulate(@NotNull List<T> items, @NotNull Supplier<R> supplier,
+                                       @NotNull BiConsumer<R, ? super T> accumulator) {
+        R container = supplier.get();
+        for (T item : items) {
+            accumulator.accept(container, item);
+        }
+        return container;
+    }
+}
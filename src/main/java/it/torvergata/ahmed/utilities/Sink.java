@@ -13,6 +13,7 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.*;
+import java.util.function.Predicate;
 
 public class Sink {
 
@@ -194,56 +195,53 @@ public class Sink {
     }
 
     private static final String CLASSES = "classes";
-    public static void serializeInjectionToCsv(String projectName, String filename,
-                                               List<Release> releases, List<JavaClass> javaClasses,
-                                               DataSetType dataSetType) {
-
-        final String datasetPath = DATASET_PATH + CLASSES + File.separator + projectName + File.separator +
-                FileExtension.CSV.name().toLowerCase(Locale.getDefault()) + File.separator
-                + dataSetType.toString()
-                .toLowerCase(Locale.getDefault());
+    /**
+     * Write the csv and the arff file of a dataset in one iteration over its classes
+     *
+     * @param projectName       the project
+     * @param filename          the dataset name, without extension
+     * @param releases          the releases of the dataset, in row order
+     * @param classesPerRelease release id -> classes, in row order
+     * @param isBuggy           the label of each class
+     * @param dataSetType       training or testing
+     */
+    public static void serializeDataset(String projectName, String filename, @NotNull List<Release> releases,
+                                        @NotNull Map<Integer, List<JavaClass>> classesPerRelease,
+                                        @NotNull Predicate<JavaClass> isBuggy, @NotNull DataSetType dataSetType) {
         try {
-            File file = getFile(filename, FileExtension.CSV, datasetPath);
-
-
-            try (FileWriter fileWriter = new FileWriter(file)) {
-
-                fileWriter.append(Sink.CSV_HEADERS_INPUTS);
-                appendInjectionData(fileWriter, releases, javaClasses, false);
-
-            }
-        } catch (IOException e) {
-            SeLogger.getInstance().getLogger().severe(e.getMessage());
-        }
-
-
-    }
-
-    public static void serializeInjectionToArff(String projectName, String filename,
-                                                List<Release> releases, List<JavaClass> javaClasses,
-                                                @NotNull DataSetType dataSetType) {
-
-        final String datasetPath = DATASET_PATH + CLASSES + File.separator + projectName + File.separator +
-                FileExtension.ARFF.name().toLowerCase(Locale.getDefault()) + File.separator
-                + dataSetType.toString()
-                .toLowerCase(Locale.getDefault());
-        try {
-            File file = getFile(filename, FileExtension.ARFF, datasetPath);
-
-
-            try (FileWriter fileWriter = new FileWriter(file)) {
-                fileWriter.append(Sink.ARFF_RELATION).append(filename)
+            File csvFile = getFile(filename, FileExtension.CSV, datasetPath(projectName, FileExtension.CSV,
+                    dataSetType));
+            File arffFile = getFile(filename, FileExtension.ARFF, datasetPath(projectName, FileExtension.ARFF,
+                    dataSetType));
+            try (BufferedWriter csvWriter = new BufferedWriter(new FileWriter(csvFile));
+                 BufferedWriter arffWriter = new BufferedWriter(new FileWriter(arffFile))) {
+                csvWriter.append(Sink.CSV_HEADERS_INPUTS);
+                arffWriter.append(Sink.ARFF_RELATION).append(filename)
                         .append('.')
                         .append(FileExtension.ARFF.name().toLowerCase(Locale.getDefault()))
                         .append("\n\n")
                         .append(Sink.ARFF_ATTRIBUTE_AND_DATA);
-                appendInjectionData(fileWriter, releases, javaClasses, true);
+                for (Release release : releases) {
+                    for (JavaClass javaClass : classesPerRelease.getOrDefault(release.getId(),
+                            Collections.emptyList())) {
+                        String row = dataRow(javaClass, isBuggy.test(javaClass));
+                        csvWriter.append(Integer.toString(release.getId())).append(",")
+                                .append(javaClass.getName()).append(",")
+                                .append(row);
+                        arffWriter.append(row);
+                    }
+                }
             }
         } catch (IOException e) {
             SeLogger.getInstance().getLogger().severe(e.getMessage());
         }
+    }
 
-
+    private static @NotNull String datasetPath(String projectName, @NotNull FileExtension fe,
+                                               @NotNull DataSetType dataSetType) {
+        return DATASET_PATH + CLASSES + File.separator + projectName + File.separator +
+                fe.name().toLowerCase(Locale.getDefault()) + File.separator
+                + dataSetType.toString().toLowerCase(Locale.getDefault());
     }
 
     public static void serializeResultsToCsv(@NotNull String projectName, List<ClassifierResult> results) {
@@ -263,59 +261,64 @@ public class Sink {
 
     }
 
-    private static void appendInjectionData(FileWriter fileWriter, List<Release> releases,
-                                            List<JavaClass> javaClasses, boolean arffFile) throws IOException {
-        for (Release release : releases) {
-            for (JavaClass javaClass : javaClasses) {
-                if (javaClass.getRelease().getId() == release.getId()) {
-                    doAppendData(fileWriter, release, javaClass, arffFile);
+    /**
+     * @return true when the training and testing sets of a walk-forward step exist in both formats
+     */
+    public static boolean datasetExists(String projectName, String filename) {
+        for (FileExtension fe : List.of(FileExtension.CSV, FileExtension.ARFF)) {
+            for (DataSetType dataSetType : DataSetType.values()) {
+                final String extension = fe.name().toLowerCase(Locale.getDefault());
+                File file = new File(DATASET_PATH + CLASSES + File.separator + projectName + File.separator +
+                        extension + File.separator + dataSetType.toString().toLowerCase(Locale.getDefault()) +
+                        File.separator + filename + "." + extension);
+                if (!file.isFile()) {
+                    return false;
                 }
             }
         }
+        return true;
     }
 
-    private static void doAppendData(FileWriter fileWriter, Release release, JavaClass javaClass,
-                                     boolean isArff) throws IOException {
-        String releaseID = Integer.toString(release.getId());
-        String isClassBugged = javaClass.getMetrics().isBug() ? "YES" : "NO";
-        String sizeOfClass = String.valueOf(javaClass.getMetrics().getSize());
-        String addedLOC = String.valueOf(javaClass.getMetrics().getAddedLOCMetrics().getVal());
-        String avgAddedLOC = String.valueOf(javaClass.getMetrics().getAddedLOCMetrics().getAvgVal());
-        String maxAddedLOC = String.valueOf(javaClass.getMetrics().getAddedLOCMetrics().getMaxVal());
-        String removedLOC = String.valueOf(javaClass.getMetrics().getRemovedLOCMetrics().getVal());
-        String avgRemovedLOC = String.valueOf(javaClass.getMetrics().getRemovedLOCMetrics().getAvgVal());
-        String maxRemovedLOC = String.valueOf(javaClass.getMetrics().getRemovedLOCMetrics().getMaxVal());
-        String touchedLOC = String.valueOf(javaClass.getMetrics().getTouchedLOCMetrics().getVal());
-        String avgTouchedLOC = String.valueOf(javaClass.getMetrics().getTouchedLOCMetrics().getAvgVal());
-        String maxTouchedLOC = String.valueOf(javaClass.getMetrics().getTouchedLOCMetrics().getMaxVal());
-        String churn = String.valueOf(javaClass.getMetrics().getChurnMetrics().getVal());
-        String avgChurn = String.valueOf(javaClass.getMetrics().getChurnMetrics().getAvgVal());
-        String maxChurn = String.valueOf(javaClass.getMetrics().getChurnMetrics().getMaxVal());
-        String nRevisions = String.valueOf(javaClass.getMetrics().getNumberOfRevisions());
-        String nDefectFixes = String.valueOf(javaClass.getMetrics().getNumberOfDefectFixes());
-        String nAuthors = String.valueOf(javaClass.getMetrics().getNumberOfAuthors());
-        String className = javaClass.getName();
-        if (!isArff) {
-            fileWriter.append(releaseID).append(",")
-                    .append(className).append(",");
-        }
-        fileWriter.append(sizeOfClass).append(",")
-                .append(addedLOC).append(",")
-                .append(avgAddedLOC).append(",")
-                .append(maxAddedLOC).append(",")
-                .append(removedLOC).append(",")
-                .append(avgRemovedLOC).append(",")
-                .append(maxRemovedLOC).append(",")
-                .append(touchedLOC).append(",")
-                .append(avgTouchedLOC).append(",")
-                .append(maxTouchedLOC).append(",")
-                .append(churn).append(",")
-                .append(avgChurn).append(",")
-                .append(maxChurn).append(",")
-                .append(nRevisions).append(",")
-                .append(nDefectFixes).append(",")
-                .append(nAuthors).append(",")
-                .append(isClassBugged).append("\n");
+    /**
+     * @return true when the classification report of the project exists
+     */
+    public static boolean resultsExist(@NotNull String projectName) {
+        return new File(Sink.RESULT_PATH + projectName + File.separator +
+                projectName.toLowerCase(Locale.getDefault()) + "_report." +
+                FileExtension.CSV.name().toLowerCase(Locale.getDefault())).isFile();
+    }
+
+    /**
+     * @return the columns of the csv and the arff datasets, part of the digest of a walk-forward step
+     */
+    public static @NotNull String datasetLayout() {
+        return CSV_HEADERS_INPUTS + ARFF_ATTRIBUTE_AND_DATA;
+    }
+
+    /**
+     * @return the metrics and the label of a class, the columns shared by the csv and the arff files
+     */
+    private static @NotNull String dataRow(@NotNull JavaClass javaClass, boolean isBuggy) {
+        Metrics metrics = javaClass.getMetrics();
+        return new StringBuilder(160)
+                .append(metrics.getSize()).append(",")
+                .append(metrics.getAddedLOCMetrics().getVal()).append(",")
+                .append(metrics.getAddedLOCMetrics().getAvgVal()).append(",")
+                .append(metrics.getAddedLOCMetrics().getMaxVal()).append(",")
+                .append(metrics.getRemovedLOCMetrics().getVal()).append(",")
+                .append(metrics.getRemovedLOCMetrics().getAvgVal()).append(",")
+                .append(metrics.getRemovedLOCMetrics().getMaxVal()).append(",")
+                .append(metrics.getTouchedLOCMetrics().getVal()).append(",")
+                .append(metrics.getTouchedLOCMetrics().getAvgVal()).append(",")
+                .append(metrics.getTouchedLOCMetrics().getMaxVal()).append(",")
+                .append(metrics.getChurnMetrics().getVal()).append(",")
+                .append(metrics.getChurnMetrics().getAvgVal()).append(",")
+                .append(metrics.getChurnMetrics().getMaxVal()).append(",")
+                .append(metrics.getNumberOfRevisions()).append(",")
+                .append(metrics.getNumberOfDefectFixes()).append(",")
+                .append(metrics.getNumberOfAuthors()).append(",")
+                .append(isBuggy ? "YES" : "NO").append("\n")
+                .toString();
     }
 
     private static void appendResultsData(String projectName, FileWriter fileWriter,
@@ -0,0 +1,36 @@
+package it.torvergata.ahmed.utilities;
+
+import it.torvergata.ahmed.logging.SeLogger;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Read the SYS_* settings: first the system property, then the environment variable, then the default
+ */
+public class SysConfig {
+
+    private SysConfig() {
+        // this is a StaticUtils
+    }
+
+    public static @Nullable String get(String key) {
+        String value = System.getProperty(key);
+        if (value == null || value.isBlank()) {
+            value = System.getenv(key);
+        }
+        return value == null || value.isBlank() ? null : value.trim();
+    }
+
+    public static int getInt(String key, int defaultValue) {
+        String value = get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            String warning = key + " invalid value=" + value + " using default=" + defaultValue;
+            SeLogger.getInstance().getLogger().warning(warning);
+            return defaultValue;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package it.torvergata.ahmed.utilities;
+
+import it.torvergata.ahmed.model.Ticket;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Find the Jira tickets quoted in a commit message scanning the message only once: every
+ * {@code PROJECT-NNN} token is extracted with one precompiled pattern and then looked up in a map
+ * keyed by {@link Ticket#getTicketKey()}
+ */
+public class TicketKeyMatcher {
+
+    private final List<Ticket> tickets;
+    private final Map<String, Integer> ticketIndex;
+    private final Pattern keyPattern;
+
+    /**
+     * @param tickets the tickets to match, the matches are returned following this order
+     */
+    public TicketKeyMatcher(@NotNull List<Ticket> tickets) {
+        this.tickets = tickets;
+        this.ticketIndex = HashMap.newHashMap(tickets.size());
+        Set<String> prefixes = new TreeSet<>();
+        for (int i = 0; i < tickets.size(); i++) {
+            String key = tickets.get(i).getTicketKey();
+            ticketIndex.putIfAbsent(key, i);
+            int dash = key.lastIndexOf('-');
+            if (dash > 0) {
+                prefixes.add(Pattern.quote(key.substring(0, dash)));
+            }
+        }
+        // same boundary of the old "KEY\b" pattern: nothing checked before the key, a word boundary after
+        String alternatives = prefixes.isEmpty() ? "(?!)" : String.join("|", prefixes);
+        this.keyPattern = Pattern.compile("(?:" + alternatives + ")-\\d+\\b");
+    }
+
+    /**
+     * @param message the full commit message
+     * @return the tickets quoted in the message, without duplicates and in ticket list order
+     */
+    public @NotNull List<Ticket> match(@NotNull String message) {
+        Matcher matcher = keyPattern.matcher(message);
+        List<Integer> found = null;
+        while (matcher.find()) {
+            Integer index = ticketIndex.get(matcher.group());
+            if (index != null) {
+                if (found == null) {
+                    found = new ArrayList<>(2);
+                }
+                if (!found.contains(index)) {
+                    found.add(index);
+                }
+            }
+        }
+        if (found == null) {
+            return Collections.emptyList();
+        }
+        found.sort(Comparator.naturalOrder());
+        List<Ticket> matched = new ArrayList<>(found.size());
+        for (int index : found) {
+            matched.add(tickets.get(index));
+        }
+        return matched;
+    }
+}
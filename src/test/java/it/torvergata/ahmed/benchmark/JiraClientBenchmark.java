@@ -0,0 +1,182 @@
+package it.torvergata.ahmed.benchmark;
+
+import it.torvergata.ahmed.controller.JiraInjection;
+import it.torvergata.ahmed.logging.SeLogger;
+import it.torvergata.ahmed.utilities.JiraClient;
+import it.torvergata.ahmed.utilities.JiraResponseCache;
+import org.jetbrains.annotations.NotNull;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Benchmark of the JIRA search on the {@link JiraStubServer}: the old path, one page after the other
+ * read char by char from {@code URL.openStream()}, against the {@link JiraClient} fetching the pages after
+ * the first one concurrently and parsing them while they stream in.
+ * <p>
+ * Usage: JiraClientBenchmark [recorded] [project] [latencyMillis] [issues], defaults
+ * {@code .temp/jira-stub} BOOKKEEPER 150 20000. When the project is not recorded a synthetic recording of
+ * the given issues is written first. Both paths must return the same issue keys, and the tickets of the
+ * project are then loaded through {@link JiraInjection} from the stub. Last, the search runs on a
+ * {@link JiraResponseCache} in {@code <recorded>-cache}: cold, warm, revalidated (TTL 0) and offline.
+ */
+public class JiraClientBenchmark {
+
+    private JiraClientBenchmark() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path recorded = Path.of(args.length > 0 ? args[0] : ".temp/jira-stub");
+        String project = args.length > 1 ? args[1] : "BOOKKEEPER";
+        int latency = args.length > 2 ? Integer.parseInt(args[2]) : 150;
+        int issues = args.length > 3 ? Integer.parseInt(args[3]) : 20000;
+        Logger logger = SeLogger.getInstance().getLogger();
+        if (!Files.isRegularFile(recorded.resolve(project).resolve("issues.json"))) {
+            record(recorded.resolve(project), issues);
+        }
+
+        try (JiraStubServer stub = new JiraStubServer(recorded, 0, latency, JiraClient.PAGE_SIZE)) {
+            String jql = "project=\"" + project + "\" AND \"issueType\"=\"Bug\"";
+            String fields = "key,versions,created,resolutiondate";
+
+            long start = System.nanoTime();
+            List<String> oldKeys = keys(sequentialSearch(stub.baseUrl(), jql, fields));
+            double oldSeconds = (System.nanoTime() - start) / 1e9;
+
+            JiraClient client = new JiraClient(stub.baseUrl(), 4);
+            start = System.nanoTime();
+            List<JSONObject> pages = client.search(jql, fields);
+            double newSeconds = (System.nanoTime() - start) / 1e9;
+            List<String> newKeys = keys(pages);
+
+            JiraInjection jiraInjection = new JiraInjection(project, client);
+            jiraInjection.injectReleases();
+            jiraInjection.pullIssues();
+
+            String msg = String.format("project=%s issues=%d pages=%d latency=%dms%n" +
+                            "old: sequential pages %.3fs%n" +
+                            "new: concurrent pages %.3fs, speedup x%.1f, same keys=%b, tickets loaded=%d",
+                    project, newKeys.size(), pages.size(), latency, oldSeconds, newSeconds,
+                    oldSeconds / Math.max(1e-9, newSeconds), oldKeys.equals(newKeys),
+                    jiraInjection.getTicketsWithIssues().size());
+            logger.info(msg);
+
+            Path cacheDir = recorded.resolveSibling(recorded.getFileName() + "-cache");
+            deleteAll(cacheDir);
+            String cold = cachedSearch(stub, new JiraResponseCache(cacheDir, Duration.ofDays(1), false), jql, fields);
+            String warm = cachedSearch(stub, new JiraResponseCache(cacheDir, Duration.ofDays(1), false), jql, fields);
+            String stale = cachedSearch(stub, new JiraResponseCache(cacheDir, Duration.ZERO, false), jql, fields);
+            String offline = cachedSearch(stub, new JiraResponseCache(cacheDir, Duration.ZERO, true), jql, fields);
+            msg = String.format("cache: cold %s%nwarm %s%nrevalidated %s%noffline %s", cold, warm, stale, offline);
+            logger.info(msg);
+        }
+    }
+
+    /**
+     * @return the time, the requests reaching the stub and the issues of a search through the cache
+     */
+    private static @NotNull String cachedSearch(@NotNull JiraStubServer stub, @NotNull JiraResponseCache cache,
+                                                String jql, String fields) throws IOException {
+        int requests = stub.requests();
+        long start = System.nanoTime();
+        List<String> keys = keys(new JiraClient(stub.baseUrl(), 4, cache).search(jql, fields));
+        return String.format("%.3fs requests=%d issues=%d", (System.nanoTime() - start) / 1e9,
+                stub.requests() - requests, keys.size());
+    }
+
+    private static void deleteAll(@NotNull Path dir) throws IOException {
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+        try (var files = Files.list(dir)) {
+            for (Path file : files.toList()) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    /**
+     * The old path: each page read into a string one char at a time, the next page asked after it
+     */
+    private static @NotNull List<JSONObject> sequentialSearch(String baseUrl, String jql, String fields)
+            throws IOException {
+        List<JSONObject> pages = new ArrayList<>();
+        int i = 0;
+        int total;
+        do {
+            String url = baseUrl + "/rest/api/2/search?jql=" + URLEncoder.encode(jql, StandardCharsets.UTF_8) +
+                    "&fields=" + fields + "&startAt=" + i + "&maxResults=" + JiraClient.PAGE_SIZE;
+            try (InputStream is = URI.create(url).toURL().openStream();
+                 Reader rd = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8))) {
+                StringBuilder sb = new StringBuilder();
+                int cp;
+                while ((cp = rd.read()) != -1) {
+                    sb.append((char) cp);
+                }
+                JSONObject json = new JSONObject(sb.toString());
+                pages.add(json);
+                total = json.getInt("total");
+            }
+            i += JiraClient.PAGE_SIZE;
+        } while (i < total);
+        return pages;
+    }
+
+    private static @NotNull List<String> keys(@NotNull List<JSONObject> pages) {
+        List<String> keys = new ArrayList<>();
+        for (JSONObject page : pages) {
+            JSONArray array = page.getJSONArray("issues");
+            for (int i = 0; i < array.length(); i++) {
+                keys.add(array.getJSONObject(i).getString("key"));
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Write a synthetic recording: a release every 90 days, the issues spread over them
+     */
+    private static void record(@NotNull Path dir, int issues) throws IOException {
+        Files.createDirectories(dir);
+        LocalDate origin = LocalDate.of(2015, 1, 1);
+        int releases = 20;
+        JSONArray versions = new JSONArray();
+        for (int r = 0; r < releases; r++) {
+            versions.put(new JSONObject().put("name", "1." + r + ".0")
+                    .put("releaseDate", origin.plusDays(90L * (r + 1)).toString()));
+        }
+        JSONArray array = new JSONArray();
+        for (int i = 0; i < issues; i++) {
+            int affected = i % releases;
+            LocalDate created = origin.plusDays(90L * affected + 10 + i % 60);
+            LocalDate resolved = created.plusDays(30L + i % 200);
+            JSONArray affectedVersions = new JSONArray();
+            if (i % 3 != 0) {
+                affectedVersions.put(new JSONObject().put("name", "1." + affected + ".0"));
+            }
+            array.put(new JSONObject().put("key", dir.getFileName() + "-" + (i + 1))
+                    .put("fields", new JSONObject()
+                            .put("created", created + "T10:00:00.000+0000")
+                            .put("resolutiondate", resolved + "T10:00:00.000+0000")
+                            .put("versions", affectedVersions)));
+        }
+        Files.writeString(dir.resolve("project.json"), new JSONObject().put("versions", versions).toString());
+        Files.writeString(dir.resolve("issues.json"), new JSONObject().put("issues", array).toString());
+    }
+}
@@ -0,0 +1,194 @@
+package it.torvergata.ahmed.benchmark;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import it.torvergata.ahmed.logging.SeLogger;
+import it.torvergata.ahmed.utilities.JiraClient;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Offline JIRA serving recorded json, to test and benchmark the {@link JiraClient} without network:
+ * <ul>
+ *     <li>{@code /jira/rest/api/latest/project/<KEY>} answers {@code <recorded>/<KEY>/project.json}</li>
+ *     <li>{@code /jira/rest/api/2/search} answers the page {@code startAt}, {@code maxResults} (at most
+ *     maxPageSize) of the {@code issues} of {@code <recorded>/<KEY>/issues.json}, KEY taken from the
+ *     {@code project} of the jql</li>
+ * </ul>
+ * Every response waits latencyMillis first, to play the network round trip, and carries an ETag: a request
+ * whose If-None-Match matches it is answered 304 without body.
+ * <p>
+ * Usage: JiraStubServer [recorded] [port] [latencyMillis], defaults {@code .temp/jira-stub} 8089 0, then
+ * run with {@code SYS_JIRA_BASE_URL=http://127.0.0.1:<port>/jira}.
+ */
+public class JiraStubServer implements AutoCloseable {
+
+    public static final String CONTEXT = "/jira";
+    private static final String PROJECT = CONTEXT + "/rest/api/latest/project/";
+    private static final String SEARCH = CONTEXT + "/rest/api/2/search";
+    private static final Pattern JQL_PROJECT = Pattern.compile("project\\s*=\\s*\"?([^\"\\s)]+)\"?");
+
+    private final Path recorded;
+    private final int latencyMillis;
+    private final int maxPageSize;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Map<String, JSONArray> issues = new ConcurrentHashMap<>();
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger notModified = new AtomicInteger();
+
+    /**
+     * @param recorded      the directory of the recorded projects
+     * @param port          the port, 0 for any free port
+     * @param latencyMillis the wait before every response
+     * @param maxPageSize   the most issues of a search page
+     */
+    public JiraStubServer(@NotNull Path recorded, int port, int latencyMillis, int maxPageSize) throws IOException {
+        this.recorded = recorded;
+        this.latencyMillis = latencyMillis;
+        this.maxPageSize = maxPageSize;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.server.createContext(CONTEXT, this::handle);
+        this.server.setExecutor(executor);
+        this.server.start();
+    }
+
+    /**
+     * @return the base url to give to the {@link JiraClient}
+     */
+    public @NotNull String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + CONTEXT;
+    }
+
+    /**
+     * @return the requests received so far
+     */
+    public int requests() {
+        return requests.get();
+    }
+
+    /**
+     * @return the requests answered 304 so far
+     */
+    public int notModified() {
+        return notModified.get();
+    }
+
+    private void handle(@NotNull HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        try (exchange) {
+            Thread.sleep(latencyMillis);
+            String path = exchange.getRequestURI().getPath();
+            JSONObject body = null;
+            if (path.startsWith(PROJECT)) {
+                body = read(recorded.resolve(path.substring(PROJECT.length())).resolve("project.json"));
+            } else if (path.equals(SEARCH)) {
+                body = search(query(exchange.getRequestURI().getRawQuery()));
+            }
+            byte[] bytes = (body != null ? body.toString() : "{\"errorMessages\":[\"not recorded\"]}")
+                    .getBytes(StandardCharsets.UTF_8);
+            String etag = "\"" + Integer.toHexString(Arrays.hashCode(bytes)) + "\"";
+            if (body != null && etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                notModified.incrementAndGet();
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            if (body != null) {
+                exchange.getResponseHeaders().set("ETag", etag);
+            }
+            exchange.sendResponseHeaders(body != null ? 200 : 404, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private @Nullable JSONObject search(@NotNull Map<String, String> query) throws IOException {
+        Matcher matcher = JQL_PROJECT.matcher(query.getOrDefault("jql", ""));
+        if (!matcher.find()) {
+            return null;
+        }
+        String project = matcher.group(1);
+        JSONArray all = issues.get(project);
+        if (all == null) {
+            JSONObject recording = read(recorded.resolve(project).resolve("issues.json"));
+            if (recording == null) {
+                return null;
+            }
+            all = recording.getJSONArray("issues");
+            issues.putIfAbsent(project, all);
+        }
+        int startAt = Integer.parseInt(query.getOrDefault("startAt", "0"));
+        int maxResults = Math.min(maxPageSize, Integer.parseInt(query.getOrDefault("maxResults", "50")));
+        JSONArray page = new JSONArray();
+        for (int i = startAt; i < Math.min(all.length(), startAt + maxResults); i++) {
+            page.put(all.get(i));
+        }
+        return new JSONObject().put("startAt", startAt).put("maxResults", maxResults)
+                .put("total", all.length()).put("issues", page);
+    }
+
+    private static @Nullable JSONObject read(@NotNull Path file) throws IOException {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return new JSONObject(new JSONTokener(reader));
+        }
+    }
+
+    private static @NotNull Map<String, String> query(String rawQuery) {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery == null) {
+            return query;
+        }
+        for (String parameter : rawQuery.split("&")) {
+            int equals = parameter.indexOf('=');
+            if (equals > 0) {
+                query.put(URLDecoder.decode(parameter.substring(0, equals), StandardCharsets.UTF_8),
+                        URLDecoder.decode(parameter.substring(equals + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return query;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path recordedPath = Path.of(args.length > 0 ? args[0] : ".temp/jira-stub");
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 8089;
+        int latency = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+        JiraStubServer stub = new JiraStubServer(recordedPath, port, latency, JiraClient.PAGE_SIZE);
+        String msg = "jira stub serving " + recordedPath + " on " + stub.baseUrl();
+        SeLogger.getInstance().getLogger().info(msg);
+    }
+}
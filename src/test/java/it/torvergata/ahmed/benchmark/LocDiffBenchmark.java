@@ -0,0 +1,115 @@
+package it.torvergata.ahmed.benchmark;
+
+import it.torvergata.ahmed.logging.SeLogger;
+import it.torvergata.ahmed.utilities.CommitDiffIndex;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.DiffFormatter;
+import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.diff.RawTextComparator;
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.util.io.DisabledOutputStream;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.logging.Logger;
+
+/**
+ * Benchmark of the LOC metrics on a real history: the old per-class path, where every commit of every
+ * class rescans the whole tree diff with a new {@link DiffFormatter}, against the per-commit
+ * {@link CommitDiffIndex} whose counts are fanned out to the touched files.
+ * <p>
+ * Usage: LocDiffBenchmark [repository] [sampledClasses], defaults {@code .temp/bookkeeper} 300.
+ * A class is a java file with all the commits touching it. The old path runs on the first
+ * sampledClasses files only, its time is extrapolated to all the files and its counts are compared with
+ * the index on that sample.
+ */
+public class LocDiffBenchmark {
+
+    private LocDiffBenchmark() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        String repoPath = args.length > 0 ? args[0] : ".temp" + File.separator + "bookkeeper";
+        int sampleNumber = args.length > 1 ? Integer.parseInt(args[1]) : 300;
+        Logger logger = SeLogger.getInstance().getLogger();
+
+        try (Repository repository = new FileRepository(repoPath + File.separator + ".git");
+             RevWalk revWalk = new RevWalk(repository)) {
+            revWalk.markStart(revWalk.parseCommit(repository.resolve("HEAD")));
+            List<RevCommit> commits = new ArrayList<>();
+            revWalk.forEach(commits::add);
+
+            long start = System.nanoTime();
+            CommitDiffIndex diffIndex = new CommitDiffIndex(repository, null).build(commits);
+            Map<String, List<RevCommit>> commitsPerFile = new LinkedHashMap<>();
+            Map<String, long[]> newCounts = new HashMap<>();
+            for (RevCommit commit : commits) {
+                diffIndex.get(commit).forEach((path, lines) -> {
+                    commitsPerFile.computeIfAbsent(path, k -> new ArrayList<>()).add(commit);
+                    long[] counts = newCounts.computeIfAbsent(path, k -> new long[2]);
+                    counts[0] += lines[0];
+                    counts[1] += lines[1];
+                });
+            }
+            double newSeconds = (System.nanoTime() - start) / 1e9;
+
+            List<String> sample = commitsPerFile.keySet().stream().limit(sampleNumber).toList();
+            start = System.nanoTime();
+            Map<String, long[]> oldCounts = new HashMap<>();
+            for (String path : sample) {
+                for (RevCommit commit : commitsPerFile.get(path)) {
+                    int[] lines = perClassDiff(repository, commit, path);
+                    long[] counts = oldCounts.computeIfAbsent(path, k -> new long[2]);
+                    counts[0] += lines[0];
+                    counts[1] += lines[1];
+                }
+            }
+            double oldSampleSeconds = (System.nanoTime() - start) / 1e9;
+            double oldSeconds = oldSampleSeconds * commitsPerFile.size() / Math.max(1, sample.size());
+
+            boolean sameCounts = true;
+            for (String path : sample) {
+                if (!Arrays.equals(oldCounts.get(path), newCounts.get(path))) {
+                    sameCounts = false;
+                    break;
+                }
+            }
+
+            String msg = String.format("repository=%s commits=%d files=%d%n" +
+                            "old: sample=%d files %.3fs, extrapolated %.1fs%n" +
+                            "new: %.3fs, speedup x%.1f, same counts on sample=%b",
+                    repoPath, commits.size(), commitsPerFile.size(), sample.size(), oldSampleSeconds, oldSeconds,
+                    newSeconds, oldSeconds / Math.max(1e-9, newSeconds), sameCounts);
+            logger.info(msg);
+        }
+    }
+
+    /**
+     * The old path: a new formatter and a full tree diff for one file of one commit
+     */
+    private static int @NotNull [] perClassDiff(Repository repository, RevCommit commit, String path)
+            throws IOException {
+        int[] lines = new int[2];
+        if (commit.getParentCount() == 0) {
+            return lines;
+        }
+        try (DiffFormatter diffFormatter = new DiffFormatter(DisabledOutputStream.INSTANCE)) {
+            diffFormatter.setRepository(repository);
+            diffFormatter.setDiffComparator(RawTextComparator.DEFAULT);
+            for (DiffEntry diffEntry : diffFormatter.scan(commit.getParent(0).getTree(), commit.getTree())) {
+                if (diffEntry.getNewPath().equals(path)) {
+                    for (Edit edit : diffFormatter.toFileHeader(diffEntry).toEditList()) {
+                        lines[0] += edit.getEndB() - edit.getBeginB();
+                        lines[1] += edit.getEndA() - edit.getBeginA();
+                    }
+                }
+            }
+        }
+        return lines;
+    }
+}
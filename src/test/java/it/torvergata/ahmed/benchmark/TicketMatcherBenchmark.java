@@ -0,0 +1,111 @@
+package it.torvergata.ahmed.benchmark;
+
+import it.torvergata.ahmed.logging.SeLogger;
+import it.torvergata.ahmed.model.Release;
+import it.torvergata.ahmed.model.Ticket;
+import it.torvergata.ahmed.utilities.TicketKeyMatcher;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * Microbenchmark of the commit/ticket linking: the old per (commit, ticket) {@link Pattern} compilation
+ * against {@link TicketKeyMatcher} on a synthetic corpus.
+ * <p>
+ * Usage: TicketMatcherBenchmark [commits] [tickets] [sampledCommits], defaults 50000 5000 2000.
+ * The old path is quadratic, so it runs on the first sampledCommits commits only and its time is
+ * extrapolated; the linked graphs of the two paths are compared on that sample.
+ */
+public class TicketMatcherBenchmark {
+
+    private static final String PROJECT = "BOOKKEEPER";
+    private static final String TREE = "4b825dc642cb6eb9a060e54bf8d69288fbee4904";
+
+    private TicketMatcherBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        int commitNumber = args.length > 0 ? Integer.parseInt(args[0]) : 50_000;
+        int ticketNumber = args.length > 1 ? Integer.parseInt(args[1]) : 5_000;
+        int sampleNumber = Math.min(commitNumber, args.length > 2 ? Integer.parseInt(args[2]) : 2_000);
+        Logger logger = SeLogger.getInstance().getLogger();
+
+        Random random = new Random(42);
+        List<RevCommit> messages = buildCommits(commitNumber, ticketNumber, random);
+        List<Ticket> tickets = buildTickets(ticketNumber);
+
+        long start = System.nanoTime();
+        Map<RevCommit, List<String>> newLinks = new HashMap<>();
+        TicketKeyMatcher matcher = new TicketKeyMatcher(tickets);
+        for (RevCommit revCommit : messages) {
+            List<Ticket> matched = matcher.match(revCommit.getFullMessage());
+            if (!matched.isEmpty()) {
+                newLinks.put(revCommit, matched.stream().map(Ticket::getTicketKey).toList());
+            }
+        }
+        double newSeconds = (System.nanoTime() - start) / 1e9;
+
+        start = System.nanoTime();
+        Map<RevCommit, List<String>> oldLinks = new HashMap<>();
+        for (RevCommit revCommit : messages.subList(0, sampleNumber)) {
+            for (Ticket ticket : tickets) {
+                if (Pattern.compile(ticket.getTicketKey() + "\\b").matcher(revCommit.getFullMessage()).find()) {
+                    oldLinks.computeIfAbsent(revCommit, k -> new ArrayList<>()).add(ticket.getTicketKey());
+                }
+            }
+        }
+        double oldSampleSeconds = (System.nanoTime() - start) / 1e9;
+        double oldSeconds = oldSampleSeconds * commitNumber / Math.max(1, sampleNumber);
+
+        boolean sameGraph = true;
+        for (RevCommit revCommit : messages.subList(0, sampleNumber)) {
+            if (!Objects.equals(oldLinks.get(revCommit), newLinks.get(revCommit))) {
+                sameGraph = false;
+                break;
+            }
+        }
+
+        String msg = String.format("commits=%d tickets=%d linkedCommits=%d%n" +
+                        "old: sample=%d commits %.3fs, extrapolated %.1fs%n" +
+                        "new: %.3fs, speedup x%.0f, same graph on sample=%b",
+                commitNumber, ticketNumber, newLinks.size(), sampleNumber, oldSampleSeconds, oldSeconds,
+                newSeconds, oldSeconds / Math.max(1e-9, newSeconds), sameGraph);
+        logger.info(msg);
+    }
+
+    private static @NotNull List<RevCommit> buildCommits(int commitNumber, int ticketNumber, Random random) {
+        List<RevCommit> revCommits = new ArrayList<>(commitNumber);
+        for (int i = 0; i < commitNumber; i++) {
+            String message;
+            switch (random.nextInt(6)) {
+                case 0 -> message = PROJECT + "-" + (1 + random.nextInt(ticketNumber)) + ": fix the ledger " + i;
+                case 1 -> message = "Merge " + PROJECT + "-" + (1 + random.nextInt(ticketNumber)) + " and " +
+                        PROJECT + "-" + (1 + random.nextInt(ticketNumber)) + " commit " + i;
+                case 2 -> message = "refers " + PROJECT + "-" + (1 + random.nextInt(ticketNumber)) + "0" + i +
+                        " not a known ticket";
+                default -> message = "update documentation and cleanup " + i;
+            }
+            String raw = "tree " + TREE + "\n" +
+                    "author bench <bench@localhost> " + (1_000_000 + i) + " +0000\n" +
+                    "committer bench <bench@localhost> " + (1_000_000 + i) + " +0000\n\n" +
+                    message + "\n";
+            revCommits.add(RevCommit.parse(raw.getBytes(StandardCharsets.UTF_8)));
+        }
+        return revCommits;
+    }
+
+    private static @NotNull List<Ticket> buildTickets(int ticketNumber) {
+        Release release = new Release(1, "1.0", LocalDate.now());
+        List<Ticket> tickets = new ArrayList<>(ticketNumber);
+        for (int i = 1; i <= ticketNumber; i++) {
+            tickets.add(new Ticket(PROJECT + "-" + i, release.getReleaseDate(), release.getReleaseDate(),
+                    release, release, List.of(release)));
+        }
+        return tickets;
+    }
+}
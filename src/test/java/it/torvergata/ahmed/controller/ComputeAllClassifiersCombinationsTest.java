@@ -0,0 +1,80 @@
+package it.torvergata.ahmed.controller;
+
+import it.torvergata.ahmed.model.ClassifierSpec;
+import it.torvergata.ahmed.utilities.FilterResultCache;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+import weka.classifiers.Classifier;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instances;
+import weka.core.Version;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * {@link ComputeAllClassifiersCombinations#prepare} replays the seeding of the
+ * {@link weka.classifiers.meta.FilteredClassifier} wrappers: on a sample walk-forward step every combination
+ * must predict exactly as its whole pipeline. A failure after a Weka upgrade means the wrappers changed the
+ * order they draw their seeds in.
+ */
+public class ComputeAllClassifiersCombinationsTest {
+
+    private static final int FEATURES = 6;
+
+    @Test
+    public void preparedCombinationsPredictAsTheirPipelines() throws Exception {
+        Instances training = sample(300, 1);
+        Instances testing = sample(100, 2);
+        FilterResultCache cache = new FilterResultCache();
+        long fingerprint = FilterResultCache.fingerprint(training);
+        for (ClassifierSpec spec : ComputeAllClassifiersCombinations.specs()) {
+            Classifier pipeline = ComputeAllClassifiersCombinations.newClassifier(spec,
+                    training.attributeStats(training.classIndex()));
+            pipeline.buildClassifier(new Instances(training));
+
+            ComputeAllClassifiersCombinations.Prepared prepared = ComputeAllClassifiersCombinations.prepare(spec,
+                    training, testing, fingerprint, cache);
+            Classifier classifier = prepared.classifier();
+            classifier.buildClassifier(new Instances(prepared.training()));
+
+            assertEquals(testing.numInstances(), prepared.testing().numInstances());
+            for (int i = 0; i < testing.numInstances(); i++) {
+                assertArrayEquals(spec + " on Weka " + Version.VERSION + ", instance " + i,
+                        pipeline.distributionForInstance(testing.instance(i)),
+                        classifier.distributionForInstance(prepared.testing().instance(i)), 0.0);
+            }
+        }
+    }
+
+    /**
+     * A dataset shaped as the ones of {@code DatasetStore}: counts as features, about one buggy class in five,
+     * the first features related to the class and the others noise
+     */
+    private static @NotNull Instances sample(int size, long seed) {
+        ArrayList<Attribute> attributes = new ArrayList<>();
+        for (int i = 0; i < FEATURES; i++) {
+            attributes.add(new Attribute("feature" + i));
+        }
+        attributes.add(new Attribute("isBuggy", List.of("YES", "NO")));
+        Instances data = new Instances("sample", attributes, size);
+        data.setClassIndex(FEATURES);
+        Random random = new Random(seed);
+        for (int n = 0; n < size; n++) {
+            boolean buggy = random.nextInt(5) == 0;
+            double[] values = new double[FEATURES + 1];
+            for (int i = 0; i < FEATURES; i++) {
+                double signal = buggy && i < FEATURES / 2 ? 20 : 0;
+                values[i] = Math.round(Math.abs(random.nextGaussian() * 15 + signal));
+            }
+            values[FEATURES] = buggy ? 0 : 1;
+            data.add(new DenseInstance(1.0, values));
+        }
+        return data;
+    }
+}
@@ -0,0 +1,93 @@
+package it.torvergata.ahmed.controller;
+
+import it.torvergata.ahmed.model.Release;
+import it.torvergata.ahmed.model.Ticket;
+import it.torvergata.ahmed.utilities.Sink;
+import org.jetbrains.annotations.NotNull;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A walk-forward step is skipped by an incremental run only when its digest matches the last run: the run
+ * settings that shape the datasets must be part of it, or a run with another cut keeps the stale datasets.
+ */
+public class IncrementalStateTest {
+
+    private static final int STEP = 2;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String previousIncremental;
+
+    @Before
+    public void enableIncremental() {
+        previousIncremental = System.getProperty(IncrementalState.SYS_INCREMENTAL);
+        System.setProperty(IncrementalState.SYS_INCREMENTAL, "true");
+    }
+
+    @After
+    public void restoreIncremental() {
+        if (previousIncremental == null) {
+            System.clearProperty(IncrementalState.SYS_INCREMENTAL);
+        } else {
+            System.setProperty(IncrementalState.SYS_INCREMENTAL, previousIncremental);
+        }
+    }
+
+    @Test
+    public void sameSettingsSkipTheSteps() {
+        Path dir = folder.getRoot().toPath();
+        List<Release> releases = releases();
+        List<Ticket> tickets = tickets(releases);
+        completeRun(dir, IncrementalState.stepDigest(STEP, releases, tickets, settings(0.5)));
+
+        IncrementalState state = IncrementalState.load(dir, "test");
+        assertTrue(state.recordStep(STEP, IncrementalState.stepDigest(STEP, releases, tickets, settings(0.5))));
+    }
+
+    @Test
+    public void changedCutRegeneratesTheSteps() {
+        Path dir = folder.getRoot().toPath();
+        List<Release> releases = releases();
+        List<Ticket> tickets = tickets(releases);
+        completeRun(dir, IncrementalState.stepDigest(STEP, releases, tickets, settings(0.5)));
+
+        IncrementalState state = IncrementalState.load(dir, "test");
+        assertFalse(state.recordStep(STEP, IncrementalState.stepDigest(STEP, releases, tickets, settings(0.3))));
+    }
+
+    private static void completeRun(@NotNull Path dir, @NotNull String digest) {
+        IncrementalState state = IncrementalState.load(dir, "test");
+        assertFalse(state.recordStep(STEP, digest));
+        state.save();
+    }
+
+    private static @NotNull List<String> settings(double cut) {
+        return List.of(String.valueOf(cut), Sink.datasetLayout());
+    }
+
+    private static @NotNull List<Release> releases() {
+        List<Release> releases = new ArrayList<>();
+        for (int i = 1; i <= 4; i++) {
+            releases.add(new Release(i, "1." + i, LocalDate.of(2020, i, 1)));
+        }
+        return releases;
+    }
+
+    private static @NotNull List<Ticket> tickets(@NotNull List<Release> releases) {
+        return List.of(new Ticket("PRJ-1", LocalDate.of(2020, 1, 15), LocalDate.of(2020, 3, 15),
+                releases.getFirst(), releases.get(2), List.of(releases.getFirst(), releases.get(1))));
+    }
+}
@@ -0,0 +1,78 @@
+package it.torvergata.ahmed.utilities;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * A record that passes its CRC but does not decode is a miss: the entry is computed again and the next
+ * write replaces it, in this run and in the next ones.
+ */
+public class AnalysisStoreTest {
+
+    private static final ObjectId COMMIT = ObjectId.fromString("0123456789abcdef0123456789abcdef01234567");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void negativeSizeIsReplaced() throws IOException {
+        assertReplaced(payload(-1));
+    }
+
+    @Test
+    public void truncatedPayloadIsReplaced() throws IOException {
+        assertReplaced(payload(3));
+    }
+
+    private void assertReplaced(byte @NotNull [] garbage) throws IOException {
+        Path dir = folder.getRoot().toPath();
+        try (RecordFile diffs = new RecordFile(dir.resolve("diffs.bin"), AnalysisStore.FORMAT_VERSION)) {
+            diffs.put(COMMIT, garbage);
+        }
+        Map<String, int[]> stats = new LinkedHashMap<>();
+        stats.put("src/main/java/Foo.java", new int[]{3, 1});
+
+        try (AnalysisStore store = AnalysisStore.open(dir)) {
+            assertNotNull(store);
+            assertNull(store.getDiff(COMMIT));
+            store.putDiff(COMMIT, stats);
+            assertStats(stats, store.getDiff(COMMIT));
+        }
+        try (AnalysisStore store = AnalysisStore.open(dir)) {
+            assertNotNull(store);
+            assertStats(stats, store.getDiff(COMMIT));
+        }
+    }
+
+    private static void assertStats(@NotNull Map<String, int[]> expected, Map<String, int[]> actual) {
+        assertNotNull(actual);
+        assertEquals(expected.keySet(), actual.keySet());
+        expected.forEach((path, lines) -> assertArrayEquals(lines, actual.get(path)));
+    }
+
+    /**
+     * A diff payload announcing {@code size} entries and holding none
+     */
+    private static byte @NotNull [] payload(int size) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(size);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,157 @@
+package it.torvergata.ahmed.utilities;
+
+import it.torvergata.ahmed.benchmark.JiraStubServer;
+import org.jetbrains.annotations.NotNull;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link JiraClient} and {@link JiraResponseCache} against the {@link JiraStubServer}
+ */
+public class JiraClientTest {
+
+    private static final String PROJECT = "STUB";
+    private static final String JQL = "project=\"" + PROJECT + "\" AND \"issueType\"=\"Bug\"";
+    private static final String FIELDS = "key,versions,created,resolutiondate";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void searchOfOnePage() throws IOException {
+        Path recorded = record(5);
+        try (JiraStubServer stub = new JiraStubServer(recorded, 0, 0, JiraClient.PAGE_SIZE)) {
+            List<JSONObject> pages = new JiraClient(stub.baseUrl(), 4).search(JQL, FIELDS);
+            assertEquals(1, pages.size());
+            assertEquals(expectedKeys(5), keys(pages));
+            assertEquals(1, stub.requests());
+        }
+    }
+
+    @Test
+    public void searchOfManyPagesKeepsTheirOrder() throws IOException {
+        int issues = 2 * JiraClient.PAGE_SIZE + 500;
+        Path recorded = record(issues);
+        try (JiraStubServer stub = new JiraStubServer(recorded, 0, 5, JiraClient.PAGE_SIZE)) {
+            List<JSONObject> pages = new JiraClient(stub.baseUrl(), 2).search(JQL, FIELDS);
+            assertEquals(3, pages.size());
+            assertEquals(expectedKeys(issues), keys(pages));
+            assertEquals(3, stub.requests());
+        }
+    }
+
+    @Test
+    public void searchFollowsThePageSizeOfTheServer() throws IOException {
+        Path recorded = record(250);
+        try (JiraStubServer stub = new JiraStubServer(recorded, 0, 0, 100)) {
+            List<JSONObject> pages = new JiraClient(stub.baseUrl(), 4).search(JQL, FIELDS);
+            assertEquals(3, pages.size());
+            assertEquals(50, pages.get(2).getJSONArray("issues").length());
+            assertEquals(expectedKeys(250), keys(pages));
+        }
+    }
+
+    @Test
+    public void freshResponsesAreServedWithoutRequests() throws IOException {
+        Path recorded = record(250);
+        Path cacheDir = folder.newFolder("cache").toPath();
+        try (JiraStubServer stub = new JiraStubServer(recorded, 0, 0, 100)) {
+            JiraResponseCache cache = new JiraResponseCache(cacheDir, Duration.ofDays(1), false);
+            List<String> downloaded = keys(new JiraClient(stub.baseUrl(), 4, cache).search(JQL, FIELDS));
+            assertEquals(3, stub.requests());
+
+            List<String> cached = keys(new JiraClient(stub.baseUrl(), 4, cache).search(JQL, FIELDS));
+            assertEquals(downloaded, cached);
+            assertEquals(3, stub.requests());
+        }
+    }
+
+    @Test
+    public void staleResponsesAreRevalidated() throws IOException {
+        Path recorded = record(250);
+        Path cacheDir = folder.newFolder("cache").toPath();
+        try (JiraStubServer stub = new JiraStubServer(recorded, 0, 0, 100)) {
+            JiraResponseCache cache = new JiraResponseCache(cacheDir, Duration.ZERO, false);
+            List<String> downloaded = keys(new JiraClient(stub.baseUrl(), 4, cache).search(JQL, FIELDS));
+            String url = stub.baseUrl() + "/rest/api/latest/project/" + PROJECT;
+            new JiraClient(stub.baseUrl(), 1, cache).project(PROJECT);
+            long fetchedAt = cache.lookup(url).fetchedAt();
+
+            List<String> revalidated = keys(new JiraClient(stub.baseUrl(), 4, cache).search(JQL, FIELDS));
+            new JiraClient(stub.baseUrl(), 1, cache).project(PROJECT);
+            assertEquals(downloaded, revalidated);
+            assertEquals(4, stub.notModified());
+            assertEquals(8, stub.requests());
+            assertTrue(cache.lookup(url).fetchedAt() >= fetchedAt);
+        }
+    }
+
+    @Test
+    public void offlineServesOnlyTheCache() throws IOException {
+        Path recorded = record(250);
+        Path cacheDir = folder.newFolder("cache").toPath();
+        try (JiraStubServer stub = new JiraStubServer(recorded, 0, 0, 100)) {
+            JiraResponseCache online = new JiraResponseCache(cacheDir, Duration.ofDays(1), false);
+            List<String> downloaded = keys(new JiraClient(stub.baseUrl(), 4, online).search(JQL, FIELDS));
+
+            // offline even a response older than the TTL is served
+            JiraResponseCache offline = new JiraResponseCache(cacheDir, Duration.ZERO, true);
+            JiraClient client = new JiraClient(stub.baseUrl(), 4, offline);
+            assertEquals(downloaded, keys(client.search(JQL, FIELDS)));
+            assertThrows(IOException.class, () -> client.project(PROJECT));
+            assertEquals(3, stub.requests());
+        }
+    }
+
+    /**
+     * Write a recording of the project with the given issues, keyed in order
+     */
+    private @NotNull Path record(int issues) throws IOException {
+        Path recorded = folder.newFolder("recorded").toPath();
+        Path project = Files.createDirectories(recorded.resolve(PROJECT));
+        JSONArray array = new JSONArray();
+        for (int i = 1; i <= issues; i++) {
+            array.put(new JSONObject().put("key", PROJECT + "-" + i).put("fields", new JSONObject()
+                    .put("created", "2020-01-01T10:00:00.000+0000")
+                    .put("resolutiondate", "2020-02-01T10:00:00.000+0000")
+                    .put("versions", new JSONArray())));
+        }
+        Files.writeString(project.resolve("project.json"), new JSONObject().put("versions", new JSONArray())
+                .toString());
+        Files.writeString(project.resolve("issues.json"), new JSONObject().put("issues", array).toString());
+        return recorded;
+    }
+
+    private static @NotNull List<String> expectedKeys(int issues) {
+        List<String> keys = new ArrayList<>();
+        for (int i = 1; i <= issues; i++) {
+            keys.add(PROJECT + "-" + i);
+        }
+        return keys;
+    }
+
+    private static @NotNull List<String> keys(@NotNull List<JSONObject> pages) {
+        List<String> keys = new ArrayList<>();
+        for (JSONObject page : pages) {
+            JSONArray array = page.getJSONArray("issues");
+            for (int i = 0; i < array.length(); i++) {
+                keys.add(array.getJSONObject(i).getString("key"));
+            }
+        }
+        return keys;
+    }
+}